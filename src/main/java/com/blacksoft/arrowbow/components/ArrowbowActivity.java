@@ -19,6 +19,7 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.FragmentActivity;
 
 import com.blacksoft.arrowbow.R;
+import com.blacksoft.arrowbow.storage_manager.BufferPool;
 import com.blacksoft.arrowbow.utils.InputUtils;
 
 import org.json.JSONException;
@@ -96,6 +97,15 @@ public class ArrowbowActivity extends FragmentActivity implements ArrowbowScreen
         loadAppLanguage(getApplicationContext(), appLanguage);
     }
 
+    /**
+     * Releases the buffers kept by the library when the system needs memory
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BufferPool.onTrimMemory(level);
+    }
+
     /**
      * Attaching new language configuration to our new context
      */
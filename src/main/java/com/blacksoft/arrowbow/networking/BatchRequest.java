@@ -0,0 +1,487 @@
+package com.blacksoft.arrowbow.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.blacksoft.arrowbow.items.Field;
+import com.blacksoft.arrowbow.utils.MainThreadDispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The goal of this class is to perform many requests as one operation, for example downloading the thumbnails
+ * of a catalog, without sending all of them at the same time.
+ * <p>
+ * At most {@link #getMaxConcurrentRequests()} requests of the batch are running at the same time, the next one
+ * starts as soon as one of them ends. Every request is described by an {@link Item}, its result is given to
+ * {@link #onItemFinished(Item)} as soon as it's ready, and {@link #onBatchFinished(List, int)} is called once
+ * all the items ended, with the status of each one of them. A failed item doesn't stop the others.
+ * <p>
+ * Both callbacks are executed in app main thread:
+ * <pre>
+ * new BatchRequest() {
+ *     protected void onItemFinished(Item item) {
+ *         if (item.isSuccessful()) showThumbnail((Integer) item.getTag(), (String) item.getResult());
+ *     }
+ *
+ *     protected void onBatchFinished(List&lt;Item&gt; items, int succeededCount) {
+ *         hideLoading();
+ *     }
+ * }.add(BatchRequest.Item.getFile(url, null, directory).setTag(position))
+ *   .setMaxConcurrentRequests(6)
+ *   .start();
+ * </pre>
+ */
+public class BatchRequest {
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    private final ArrayList<Item> items = new ArrayList<>();
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private int threadPriority = HttpConnection.PRIORITY_NORMAL;
+
+    /**
+     * Progress of the batch, guarded by this object's lock.
+     */
+    private int nextIndex = 0;
+    private int runningCount = 0;
+    private int succeededCount = 0;
+    private int failedCount = 0;
+    private boolean dispatching = false;
+    private volatile boolean started = false;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Number of items delivered to the main thread, only used from it.
+     */
+    private int deliveredCount = 0;
+
+    /**
+     * Called in app main thread every time an item ends, successfully or not.
+     *
+     * @param item: the ended item, holding its flag and response.
+     */
+    protected void onItemFinished(@NonNull Item item) {
+    }
+
+    /**
+     * Called in app main thread once, after {@link #onItemFinished(Item)} was called for every item.
+     * It isn't called if the batch was cancelled.
+     *
+     * @param items:          all the items of the batch, in the order they were added.
+     * @param succeededCount: number of items that got their response.
+     */
+    protected void onBatchFinished(@NonNull List<Item> items, int succeededCount) {
+    }
+
+    /**
+     * Called before an item is sent, to configure its connection, by setting a {@link RetryPolicy}
+     * or disabling the cache for example. It runs in the thread sending the item, the one calling
+     * {@link #start()} for the first items and a background thread for the next ones.
+     *
+     * @param connection: the connection performing the item request.
+     * @param item:       the item about to be sent.
+     */
+    protected void onCreateConnection(@NonNull HttpConnection connection, @NonNull Item item) {
+    }
+
+    /**
+     * Adds a request to the batch, items can only be added before {@link #start()}.
+     *
+     * @param item: description of the request.
+     */
+    public BatchRequest add(@NonNull Item item) {
+        if (started) {
+            Log.e("Arrowbow_library", "Items can't be added to a started batch");
+            return this;
+        }
+        item.index = items.size();
+        items.add(item);
+        return this;
+    }
+
+    /**
+     * Sends the first requests of the batch, the others follow as the running ones end.
+     * A batch can be started only once.
+     */
+    public BatchRequest start() {
+        if (started) {
+            Log.e("Arrowbow_library", "This batch was already started");
+            return this;
+        }
+        started = true;
+
+        if (items.isEmpty()) {
+            MainThreadDispatcher.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) onBatchFinished(getItems(), 0);
+                }
+            });
+            return this;
+        }
+        dispatch();
+        return this;
+    }
+
+    /**
+     * Cancels the items that didn't end yet, the waiting ones aren't sent and the running ones are cancelled
+     * as described in {@link HttpConnection#cancel()}. No callback is called anymore.
+     */
+    public final void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            HttpConnection connection;
+            synchronized (this) {
+                if (item.status == Item.STATUS_SUCCEEDED || item.status == Item.STATUS_FAILED) continue;
+                item.status = Item.STATUS_CANCELLED;
+                connection = item.connection;
+            }
+            if (connection != null) connection.cancel();
+        }
+    }
+
+    /**
+     * Sends waiting items while less than {@link #getMaxConcurrentRequests()} are running.
+     * <p>
+     * Only one thread sends items at a time, a request failing right away in the sending thread
+     * ends in this loop instead of starting a nested one.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) return;
+            dispatching = true;
+        }
+        while (true) {
+            Item item;
+            HttpConnection connection;
+            synchronized (this) {
+                if (cancelled || runningCount >= maxConcurrentRequests || nextIndex >= items.size()) {
+                    dispatching = false;
+                    return;
+                }
+                item = items.get(nextIndex++);
+                runningCount++;
+                item.status = Item.STATUS_RUNNING;
+                connection = new ItemConnection(item);
+                item.connection = connection;
+            }
+            connection.setThreadPriority(threadPriority);
+            onCreateConnection(connection, item);
+            item.send(connection);
+        }
+    }
+
+    /**
+     * Records the result of an item and sends the next one, called in the background thread.
+     */
+    private void onItemEnded(@NonNull Item item, int flag, @Nullable Response response) {
+        synchronized (this) {
+            if (item.status != Item.STATUS_RUNNING) return;
+            item.flag = flag;
+            item.response = response;
+            if (flag == HttpConnection.FLAG_RESPONSE_IS_READY) {
+                item.status = Item.STATUS_SUCCEEDED;
+                succeededCount++;
+            } else {
+                item.status = Item.STATUS_FAILED;
+                failedCount++;
+            }
+            item.connection = null;
+            runningCount--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Performs the request of an item and reports its end to the batch.
+     */
+    private final class ItemConnection extends HttpConnection {
+        private final Item item;
+        /**
+         * Whether the final event of the item reached the ui thread, used on the ui thread only.
+         */
+        private boolean delivered = false;
+
+        private ItemConnection(@NonNull Item item) {
+            this.item = item;
+        }
+
+        @Override
+        protected void doInBackgroundThread(int flag, @Nullable Response response) {
+            if (isFinal(flag)) onItemEnded(item, flag, response);
+        }
+
+        @Override
+        protected void doInUiThread(int flag, @Nullable Response response) {
+            if (!isFinal(flag) || cancelled || delivered) return;
+            delivered = true;
+            onItemFinished(item);
+            if (++deliveredCount == items.size()) onBatchFinished(getItems(), getSucceededCount());
+        }
+
+        /**
+         * @return true if no other event follows this one.
+         */
+        private boolean isFinal(int flag) {
+            return flag != FLAG_REQUEST_ACCEPTED && flag != FLAG_DATA_SENT;
+        }
+    }
+
+    /**
+     * Sets the maximum number of requests of this batch running at the same time,
+     * the {@link RequestExecutor} limits still apply.
+     *
+     * @param maxConcurrentRequests: maximum number of requests, 4 by default.
+     */
+    public BatchRequest setMaxConcurrentRequests(int maxConcurrentRequests) {
+        synchronized (this) {
+            this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        }
+        if (started) dispatch();
+        return this;
+    }
+
+    public synchronized int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * @param threadPriority: one of {@link HttpConnection} PRIORITY_* values, applied to all the items.
+     */
+    public BatchRequest setThreadPriority(int threadPriority) {
+        this.threadPriority = threadPriority;
+        return this;
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * @return all the items, in the order they were added.
+     */
+    @NonNull
+    public List<Item> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return the number of items that got their response.
+     */
+    public synchronized int getSucceededCount() {
+        return succeededCount;
+    }
+
+    /**
+     * @return the number of items that failed.
+     */
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return the number of items currently running.
+     */
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * One request of a batch, and its result once it ended.
+     */
+    public static final class Item {
+
+        /**
+         * the possible states of an item
+         */
+        public static final int STATUS_WAITING = 0;
+        public static final int STATUS_RUNNING = 1;
+        public static final int STATUS_SUCCEEDED = 2;
+        public static final int STATUS_FAILED = 3;
+        public static final int STATUS_CANCELLED = 4;
+
+        private static final int TYPE_TEXT = 0;
+        private static final int TYPE_FILE = 1;
+        private static final int TYPE_WRITE = 2;
+        private static final int TYPE_MULTI_PART_DATA_FORM = 3;
+
+        private final int type;
+        private final String url;
+        private final RequestHeader requestHeader;
+        private String connectionMethod;
+        private String text;
+        private Field[] fields;
+        private String storageDirectory;
+        private int responseDataType = HttpConnection.DATATYPE_TEXT;
+        private Object tag;
+
+        private int index;
+        private volatile int status = STATUS_WAITING;
+        private volatile int flag;
+        private volatile Response response;
+        private HttpConnection connection;
+
+        private Item(int type, @Nullable String url, @Nullable RequestHeader requestHeader) {
+            this.type = type;
+            this.url = url;
+            this.requestHeader = requestHeader;
+        }
+
+        /**
+         * Describes a text download, see {@link HttpConnection#getText(String, RequestHeader)}.
+         */
+        @NonNull
+        public static Item getText(@Nullable String url, @Nullable RequestHeader requestHeader) {
+            return new Item(TYPE_TEXT, url, requestHeader);
+        }
+
+        /**
+         * Describes a file download, see {@link HttpConnection#getFile(String, RequestHeader, String)}.
+         */
+        @NonNull
+        public static Item getFile(@Nullable String url, @Nullable RequestHeader requestHeader,
+                                   @NonNull String storageDirectory) {
+            Item item = new Item(TYPE_FILE, url, requestHeader);
+            item.storageDirectory = storageDirectory;
+            item.responseDataType = HttpConnection.DATATYPE_FILE;
+            return item;
+        }
+
+        /**
+         * Describes a text sent to the server, see {@link HttpConnection#postText(String, RequestHeader, String, int, String)}.
+         *
+         * @param connectionMethod: "POST", "PUT", "PATCH" or "DELETE".
+         */
+        @NonNull
+        public static Item sendText(@NonNull String connectionMethod,
+                                    @Nullable String url,
+                                    @Nullable RequestHeader requestHeader,
+                                    @Nullable String text,
+                                    int responseDataType,
+                                    @Nullable String storageDirectoryIfResponseIsFile) {
+            Item item = new Item(TYPE_WRITE, url, requestHeader);
+            item.connectionMethod = connectionMethod;
+            item.text = text;
+            item.responseDataType = responseDataType;
+            item.storageDirectory = storageDirectoryIfResponseIsFile;
+            return item;
+        }
+
+        /**
+         * Describes a multi-part form, see
+         * {@link HttpConnection#postMultiPartDataForm(String, RequestHeader, int, String, Field...)}.
+         */
+        @NonNull
+        public static Item postMultiPartDataForm(@Nullable String url,
+                                                 @Nullable RequestHeader requestHeader,
+                                                 int responseDataType,
+                                                 @Nullable String storageDirectoryIfResponseIsFile,
+                                                 @Nullable Field... fields) {
+            Item item = new Item(TYPE_MULTI_PART_DATA_FORM, url, requestHeader);
+            item.fields = fields;
+            item.responseDataType = responseDataType;
+            item.storageDirectory = storageDirectoryIfResponseIsFile;
+            return item;
+        }
+
+        /**
+         * Sends the request of this item.
+         */
+        private void send(@NonNull HttpConnection connection) {
+            switch (type) {
+                case TYPE_TEXT:
+                    connection.getText(url, requestHeader);
+                    break;
+                case TYPE_FILE:
+                    connection.getFile(url, requestHeader, storageDirectory);
+                    break;
+                case TYPE_MULTI_PART_DATA_FORM:
+                    connection.postMultiPartDataForm(url, requestHeader, responseDataType, storageDirectory, fields);
+                    break;
+                default:
+                    if ("PUT".equalsIgnoreCase(connectionMethod))
+                        connection.putText(url, requestHeader, text, responseDataType, storageDirectory);
+                    else if ("PATCH".equalsIgnoreCase(connectionMethod))
+                        connection.patchText(url, requestHeader, text, responseDataType, storageDirectory);
+                    else if ("DELETE".equalsIgnoreCase(connectionMethod))
+                        connection.deleteText(url, requestHeader, text, responseDataType, storageDirectory);
+                    else connection.postText(url, requestHeader, text, responseDataType, storageDirectory);
+            }
+        }
+
+        /**
+         * @param tag: any object helping to match the item with its result, a list position for example.
+         */
+        public Item setTag(@Nullable Object tag) {
+            this.tag = tag;
+            return this;
+        }
+
+        @Nullable
+        public Object getTag() {
+            return tag;
+        }
+
+        /**
+         * @return the position of the item in its batch.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        @Nullable
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return one of the STATUS_* values.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        public boolean isSuccessful() {
+            return status == STATUS_SUCCEEDED;
+        }
+
+        /**
+         * @return the last flag of the item request, one of {@link HttpConnection} FLAG_* values.
+         */
+        public int getFlag() {
+            return flag;
+        }
+
+        /**
+         * @return the last response of the item request, can be null even if it ended.
+         */
+        @Nullable
+        public Response getResponse() {
+            return response;
+        }
+
+        /**
+         * @return the result of the response, the text or file path of a successful item, or the error message.
+         */
+        @Nullable
+        public Object getResult() {
+            Response response = this.response;
+            return (response != null) ? response.getResult() : null;
+        }
+    }
+}
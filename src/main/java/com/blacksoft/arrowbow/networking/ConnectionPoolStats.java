@@ -0,0 +1,125 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The goal of this class is to count how many requests were sent over a socket kept alive by the platform
+ * connection pool, when {@link HttpConnection#setReuseConnection(boolean)} is enabled.
+ * <p>
+ * {@link java.net.HttpURLConnection} doesn't tell if a socket was reused, so every connection given back
+ * to the pool is remembered per host for the keep-alive duration of the platform, and the next request
+ * to the same host is counted as a reused one.
+ */
+public final class ConnectionPoolStats {
+
+    /**
+     * Keep-alive configuration of the platform connection pool.
+     */
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+
+    /**
+     * Release times of the idle connections of each host.
+     */
+    private static final HashMap<String, ArrayDeque<Long>> idleConnections = new HashMap<>();
+
+    private static long reusedConnections = 0;
+    private static long newConnections = 0;
+    private static long releasedConnections = 0;
+    private static long discardedConnections = 0;
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private ConnectionPoolStats() {
+    }
+
+    /**
+     * Called when a request starts.
+     *
+     * @param host: host of the request url.
+     * @return true if the request is expected to reuse a pooled connection.
+     */
+    static synchronized boolean onConnectionAcquired(@NonNull String host) {
+        ArrayDeque<Long> idle = idleConnections.get(host);
+        long now = System.nanoTime();
+
+        if (idle != null) {
+            Long releasedAt;
+            while ((releasedAt = idle.pollFirst()) != null) {
+                if (now - releasedAt < KEEP_ALIVE_NANOS) {
+                    reusedConnections++;
+                    return true;
+                }
+            }
+        }
+        newConnections++;
+        return false;
+    }
+
+    /**
+     * Called when a connection is given back to the pool with its streams fully read and closed.
+     *
+     * @param host: host of the request url.
+     */
+    static synchronized void onConnectionReleased(@NonNull String host) {
+        ArrayDeque<Long> idle = idleConnections.get(host);
+        if (idle == null) {
+            idle = new ArrayDeque<>();
+            idleConnections.put(host, idle);
+        }
+        if (idle.size() >= MAX_IDLE_CONNECTIONS_PER_HOST) idle.pollFirst();
+        idle.addLast(System.nanoTime());
+        releasedConnections++;
+    }
+
+    /**
+     * Called when a connection couldn't be given back to the pool and had to be disconnected.
+     */
+    static synchronized void onConnectionDiscarded() {
+        discardedConnections++;
+    }
+
+    /**
+     * @return the number of requests that reused a pooled connection.
+     */
+    public static synchronized long getReusedConnectionsCount() {
+        return reusedConnections;
+    }
+
+    /**
+     * @return the number of requests that had to open a new connection.
+     */
+    public static synchronized long getNewConnectionsCount() {
+        return newConnections;
+    }
+
+    /**
+     * @return the number of connections given back to the pool.
+     */
+    public static synchronized long getReleasedConnectionsCount() {
+        return releasedConnections;
+    }
+
+    /**
+     * @return the number of connections closed because their response couldn't be drained.
+     */
+    public static synchronized long getDiscardedConnectionsCount() {
+        return discardedConnections;
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public static synchronized void reset() {
+        idleConnections.clear();
+        reusedConnections = 0;
+        newConnections = 0;
+        releasedConnections = 0;
+        discardedConnections = 0;
+    }
+}
@@ -0,0 +1,203 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The goal of this class is to negotiate compressed responses with the server and to decode them
+ * before they reach the user, and to compress request bodies.
+ * <p>
+ * gzip and deflate are supported out of the box, other codings (brotli for example) can be added with
+ * {@link #register(String, Decoder)}:
+ * <pre>
+ * ContentEncoding.register("br", new ContentEncoding.Decoder() {
+ *     public InputStream decode(InputStream inputStream) throws IOException {
+ *         return new BrotliInputStream(inputStream);
+ *     }
+ * });
+ * </pre>
+ */
+public final class ContentEncoding {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+
+    /**
+     * Supported codings, in the order they are offered to the server.
+     */
+    private static final LinkedHashMap<String, Decoder> decoders = new LinkedHashMap<>();
+
+    static {
+        decoders.put(GZIP, new Decoder() {
+            @NonNull
+            @Override
+            public InputStream decode(@NonNull InputStream inputStream) throws IOException {
+                return new GZIPInputStream(inputStream, 8192);
+            }
+        });
+        decoders.put(DEFLATE, new Decoder() {
+            @NonNull
+            @Override
+            public InputStream decode(@NonNull InputStream inputStream) throws IOException {
+                return inflate(inputStream);
+            }
+        });
+    }
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private ContentEncoding() {
+    }
+
+    /**
+     * Decodes a response body compressed with a given coding.
+     */
+    public interface Decoder {
+        @NonNull
+        InputStream decode(@NonNull InputStream inputStream) throws IOException;
+    }
+
+    /**
+     * Adds a coding the server is allowed to use, or replaces the decoder of a supported one.
+     *
+     * @param coding:  coding name as found in Content-Encoding, "br" for brotli.
+     * @param decoder: the decoder of this coding.
+     */
+    public static synchronized void register(@NonNull String coding, @NonNull Decoder decoder) {
+        decoders.put(coding.trim().toLowerCase(Locale.US), decoder);
+    }
+
+    /**
+     * @return the value of the Accept-Encoding header sent with requests, "gzip, deflate" by default.
+     */
+    @NonNull
+    public static synchronized String getAcceptEncoding() {
+        StringBuilder acceptEncoding = new StringBuilder();
+        for (String coding : decoders.keySet()) {
+            if (acceptEncoding.length() > 0) acceptEncoding.append(", ");
+            acceptEncoding.append(coding);
+        }
+        return acceptEncoding.toString();
+    }
+
+    /**
+     * Offers the supported codings to the server, unless the user already chose the accepted codings.
+     *
+     * @return true if the response has to be decoded with {@link #decode(HttpURLConnection, InputStream)}.
+     */
+    static boolean accept(@NonNull HttpURLConnection connection) {
+        if (connection.getRequestProperty(RequestHeader.Field.ACCEPT_ENCODING) != null) return false;
+        connection.setRequestProperty(RequestHeader.Field.ACCEPT_ENCODING, getAcceptEncoding());
+        return true;
+    }
+
+    /**
+     * Asks the server for the bytes as they are, byte ranges then match the stored file.
+     */
+    static void acceptIdentity(@NonNull HttpURLConnection connection) {
+        if (connection.getRequestProperty(RequestHeader.Field.ACCEPT_ENCODING) == null)
+            connection.setRequestProperty(RequestHeader.Field.ACCEPT_ENCODING, IDENTITY);
+    }
+
+    /**
+     * @return true if the response body is compressed.
+     */
+    static boolean isEncoded(@NonNull HttpURLConnection connection) {
+        String contentEncoding = connection.getContentEncoding();
+        return contentEncoding != null && !contentEncoding.trim().isEmpty()
+                && !contentEncoding.trim().equalsIgnoreCase(IDENTITY);
+    }
+
+    /**
+     * Wraps a response stream into the decoders of its Content-Encoding.
+     *
+     * @param connection:  the connection of the response.
+     * @param inputStream: response or error stream.
+     * @return the decoded stream.
+     * @throws IOException if a coding isn't supported.
+     */
+    @Nullable
+    static InputStream decode(@NonNull HttpURLConnection connection, @Nullable InputStream inputStream)
+            throws IOException {
+        if (inputStream == null || !isEncoded(connection)) return inputStream;
+
+        /**
+         * codings are listed in the order they were applied, they are removed starting by the last one
+         */
+        String[] codings = connection.getContentEncoding().split(",");
+        for (int i = codings.length - 1; i >= 0; i--) {
+            String coding = codings[i].trim().toLowerCase(Locale.US);
+            if (coding.isEmpty() || coding.equals(IDENTITY)) continue;
+
+            Decoder decoder;
+            synchronized (ContentEncoding.class) {
+                decoder = decoders.get(coding);
+            }
+            if (decoder == null) throw new IOException("Unsupported content encoding: " + coding);
+            inputStream = decoder.decode(inputStream);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Compresses a request body.
+     *
+     * @return gzip bytes.
+     */
+    @NonNull
+    static byte[] gzip(@NonNull byte[] bytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192);
+        try {
+            gzipOutputStream.write(bytes);
+        } finally {
+            gzipOutputStream.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * "deflate" is meant to be zlib data, but some servers send raw deflate data,
+     * the first two bytes tell which one it is.
+     */
+    @NonNull
+    private static InputStream inflate(@NonNull InputStream inputStream) throws IOException {
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 2);
+        int first = pushbackInputStream.read();
+        int second = (first == -1) ? -1 : pushbackInputStream.read();
+        if (second != -1) pushbackInputStream.unread(second);
+        if (first != -1) pushbackInputStream.unread(first);
+
+        boolean zlib = first != -1 && second != -1
+                && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pushbackInputStream, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                /**
+                 * an inflater given to the stream isn't released by it
+                 */
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,663 @@
+package com.blacksoft.arrowbow.networking;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.blacksoft.arrowbow.storage_manager.BufferPool;
+import com.blacksoft.arrowbow.storage_manager.FileSaver;
+import com.blacksoft.arrowbow.storage_manager.StorageUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The goal of this class is to keep the responses of GET requests on disk, following the HTTP caching rules,
+ * so repeated requests cost no bandwidth.
+ * <p>
+ * A stored response is served without any network call while it's fresh ({@code Cache-Control: max-age} or
+ * {@code Expires}), once stale it is revalidated with {@code If-None-Match} / {@code If-Modified-Since}
+ * and a 304 answer from the server is turned into a cache hit.
+ * <p>
+ * Responses are shared between requests of the same url only when they ask for the same thing: a stored response
+ * is used only if the request headers named by its {@code Vary} header are equal, and a request sending an
+ * {@code Authorization} header only uses responses the server marked {@code Cache-Control: public}.
+ * {@code Accept-Encoding} is ignored as bodies are stored decoded.
+ * <p>
+ * Install it once from your Application class using {@link #install(Context, long)}, every {@link HttpConnection}
+ * downloading text or files will then use it.
+ */
+public final class HttpCache {
+
+    private static final String CACHE_FOLDER = "arrowbow_http_cache";
+    private static final String BODY_EXTENSION = ".body";
+    private static final String META_EXTENSION = ".meta";
+
+    /**
+     * Meta file keys
+     */
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_CONTENT_TYPE = "content_type";
+    private static final String KEY_SERVED_AT = "served_at";
+    private static final String KEY_EXPIRES_AT = "expires_at";
+    private static final String KEY_MAX_AGE = "max_age";
+    private static final String KEY_NO_CACHE = "no_cache";
+    private static final String KEY_DELIVERED_PATH = "delivered_path";
+    private static final String KEY_PUBLIC = "public";
+    private static final String KEY_VARY = "vary";
+    private static final String KEY_VARY_VALUE_PREFIX = "vary.";
+
+    private static HttpCache installed;
+
+    private final File directory;
+    private final long maxSize;
+
+    private long hitCount = 0;
+    private long revalidatedCount = 0;
+    private long missCount = 0;
+
+    /**
+     * @param directory: where the responses are stored.
+     * @param maxSize:   maximum size of stored responses in bytes.
+     */
+    public HttpCache(@NonNull File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        directory.mkdirs();
+    }
+
+    /**
+     * Installs a cache in the app cache folder, used by every {@link HttpConnection}.
+     *
+     * @param context: preferably application context
+     * @param maxSize: maximum size of stored responses in bytes.
+     */
+    @NonNull
+    public static synchronized HttpCache install(@NonNull Context context, long maxSize) {
+        installed = new HttpCache(new File(context.getApplicationContext().getCacheDir(), CACHE_FOLDER), maxSize);
+        return installed;
+    }
+
+    /**
+     * Installs a custom cache used by every {@link HttpConnection}, null to stop caching.
+     */
+    public static synchronized void install(@Nullable HttpCache cache) {
+        installed = cache;
+    }
+
+    /**
+     * @return the installed cache or null.
+     */
+    @Nullable
+    public static synchronized HttpCache getInstalled() {
+        return installed;
+    }
+
+    /**
+     * @param url: request url
+     * @return the stored response of this url, or null if it's not stored.
+     */
+    @Nullable
+    public Entry get(@NonNull String url) {
+        return get(url, null);
+    }
+
+    /**
+     * @param url:    request url
+     * @param header: the headers the request is sent with.
+     * @return the stored response of this request, or null if it's not stored or was stored for other headers.
+     */
+    @Nullable
+    public synchronized Entry get(@NonNull String url, @Nullable RequestHeader header) {
+        String key = keyOf(url);
+        File metaFile = new File(directory, key + META_EXTENSION);
+        File bodyFile = new File(directory, key + BODY_EXTENSION);
+        if (!metaFile.isFile() || !bodyFile.isFile()) return null;
+
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(metaFile);
+            properties.load(inputStream);
+        } catch (IOException e) {
+            Log.e("Arrowbow_library", "" + e.getMessage());
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+
+        /**
+         * two urls giving the same key
+         */
+        if (!url.equals(properties.getProperty(KEY_URL))) return null;
+
+        if (valueOf(header, RequestHeader.Field.AUTHORIZATION) != null
+                && !Boolean.parseBoolean(properties.getProperty(KEY_PUBLIC))) return null;
+
+        for (String name : varyingHeaders(properties.getProperty(KEY_VARY))) {
+            String stored = properties.getProperty(KEY_VARY_VALUE_PREFIX + name);
+            String value = valueOf(header, name);
+            if (stored == null ? value != null : !stored.equals(value)) return null;
+        }
+
+        return new Entry(key, bodyFile, properties);
+    }
+
+    /**
+     * Stores a text response.
+     *
+     * @param url:        request url
+     * @param connection: the connection the response was read from.
+     * @param text:       response body.
+     */
+    public void put(@NonNull String url, @NonNull HttpURLConnection connection, @NonNull String text) {
+        put(url, null, connection, text);
+    }
+
+    /**
+     * Stores a text response.
+     *
+     * @param url:        request url
+     * @param header:     the headers the request was sent with.
+     * @param connection: the connection the response was read from.
+     * @param text:       response body.
+     */
+    public void put(@NonNull String url, @Nullable RequestHeader header, @NonNull HttpURLConnection connection,
+                    @NonNull String text) {
+        if (!isStorable(header, connection)) return;
+
+        File temp = new File(directory, keyOf(url) + ".tmp" + Thread.currentThread().getId());
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temp);
+            outputStream.write(text.getBytes(Charset.forName("UTF-8")));
+            outputStream.close();
+            outputStream = null;
+            commit(url, header, connection, temp, null);
+        } catch (IOException e) {
+            Log.e("Arrowbow_library", "" + e.getMessage());
+            temp.delete();
+        } finally {
+            closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * Stores a file response, the file is copied to the cache folder.
+     *
+     * @param url:        request url
+     * @param connection: the connection the response was read from.
+     * @param file:       downloaded file.
+     */
+    public void put(@NonNull String url, @NonNull HttpURLConnection connection, @NonNull File file) {
+        put(url, null, connection, file);
+    }
+
+    /**
+     * Stores a file response, the file is copied to the cache folder.
+     *
+     * @param url:        request url
+     * @param header:     the headers the request was sent with.
+     * @param connection: the connection the response was read from.
+     * @param file:       downloaded file.
+     */
+    public void put(@NonNull String url, @Nullable RequestHeader header, @NonNull HttpURLConnection connection,
+                    @NonNull File file) {
+        if (!isStorable(header, connection) || file.length() > maxSize) return;
+
+        String key = keyOf(url);
+        String tempName = key + ".tmp" + Thread.currentThread().getId();
+        String tempPath = new FileSaver().save(directory.getPath(), tempName, file);
+        if (tempPath == null) return;
+
+        commit(url, header, connection, new File(tempPath), file.getPath());
+    }
+
+    /**
+     * Moves a response body to its place and writes its meta file.
+     */
+    private synchronized void commit(@NonNull String url, @Nullable RequestHeader header,
+                                     @NonNull HttpURLConnection connection,
+                                     @NonNull File body, @Nullable String deliveredPath) {
+        String key = keyOf(url);
+        File bodyFile = new File(directory, key + BODY_EXTENSION);
+        bodyFile.delete();
+        if (!body.renameTo(bodyFile)) {
+            body.delete();
+            return;
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty(KEY_URL, url);
+        if (connection.getContentType() != null)
+            properties.setProperty(KEY_CONTENT_TYPE, connection.getContentType());
+        if (deliveredPath != null) properties.setProperty(KEY_DELIVERED_PATH, deliveredPath);
+        fillValidators(properties, connection);
+
+        /**
+         * keeps the request values of the headers the response depends on
+         */
+        String vary = connection.getHeaderField(RequestHeader.Field.VARY);
+        if (vary != null) {
+            properties.setProperty(KEY_VARY, vary);
+            for (String name : varyingHeaders(vary)) {
+                String value = valueOf(header, name);
+                if (value != null) properties.setProperty(KEY_VARY_VALUE_PREFIX + name, value);
+            }
+        }
+
+        if (writeMeta(key, properties)) trimToSize();
+        else bodyFile.delete();
+    }
+
+    /**
+     * Refreshes a stored response after the server answered 304 (Not Modified).
+     *
+     * @param entry:      the stored response.
+     * @param connection: the connection that received the 304 answer.
+     */
+    public synchronized void update(@NonNull Entry entry, @NonNull HttpURLConnection connection) {
+        fillValidators(entry.properties, connection);
+        writeMeta(entry.key, entry.properties);
+    }
+
+    /**
+     * Reads caching headers of a response, the headers a 304 answer doesn't carry keep their stored values.
+     */
+    private static void fillValidators(@NonNull Properties properties, @NonNull HttpURLConnection connection) {
+        String etag = connection.getHeaderField(RequestHeader.Field.ETAG);
+        String lastModified = connection.getHeaderField(RequestHeader.Field.LAST_MODIFIED);
+        if (etag != null) properties.setProperty(KEY_ETAG, etag);
+        if (lastModified != null) properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+
+        long now = System.currentTimeMillis();
+        properties.setProperty(KEY_SERVED_AT, String.valueOf(now));
+
+        String cacheControl = connection.getHeaderField(RequestHeader.Field.CACHE_CONTROL);
+        if (cacheControl != null) {
+            boolean noCache = false;
+            boolean isPublic = false;
+            long maxAge = -1;
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache")) noCache = true;
+                else if (directive.equals("public")) isPublic = true;
+                else if (directive.startsWith("max-age=")) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+                    } catch (NumberFormatException e) {
+                        maxAge = 0;
+                    }
+                }
+            }
+            properties.setProperty(KEY_NO_CACHE, String.valueOf(noCache));
+            properties.setProperty(KEY_PUBLIC, String.valueOf(isPublic));
+            if (maxAge >= 0) properties.setProperty(KEY_MAX_AGE, String.valueOf(maxAge));
+            else properties.remove(KEY_MAX_AGE);
+        }
+
+        /**
+         * a max-age counts from the last answer of the server, even a stored one.
+         */
+        String maxAge = properties.getProperty(KEY_MAX_AGE);
+        if (maxAge != null) {
+            long expiresAt = now + TimeUnit.SECONDS.toMillis(Long.parseLong(maxAge));
+            properties.setProperty(KEY_EXPIRES_AT, String.valueOf(expiresAt));
+        } else if (connection.getExpiration() > 0) {
+            /**
+             * Expires is an absolute date of the server clock.
+             */
+            long serverDate = connection.getDate() > 0 ? connection.getDate() : now;
+            properties.setProperty(KEY_EXPIRES_AT, String.valueOf(now + (connection.getExpiration() - serverDate)));
+        } else if (properties.getProperty(KEY_EXPIRES_AT) == null)
+            properties.setProperty(KEY_EXPIRES_AT, "0");
+    }
+
+    /**
+     * @return false if the server doesn't allow storing the response, or if it belongs to an authorized user
+     * and isn't marked public.
+     */
+    private boolean isStorable(@Nullable RequestHeader header, @NonNull HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField(RequestHeader.Field.CACHE_CONTROL);
+        cacheControl = (cacheControl == null) ? "" : cacheControl.toLowerCase();
+        if (maxSize <= 0 || cacheControl.contains("no-store")) return false;
+
+        String vary = connection.getHeaderField(RequestHeader.Field.VARY);
+        if (vary != null && vary.contains("*")) return false;
+
+        return valueOf(header, RequestHeader.Field.AUTHORIZATION) == null || cacheControl.contains("public");
+    }
+
+    /**
+     * @return the lower case names listed in a Vary header, except Accept-Encoding as bodies are stored decoded.
+     */
+    @NonNull
+    private static ArrayList<String> varyingHeaders(@Nullable String vary) {
+        ArrayList<String> names = new ArrayList<>();
+        if (vary == null) return names;
+        for (String name : vary.split(",")) {
+            name = name.trim().toLowerCase();
+            if (!name.isEmpty() && !name.equals(RequestHeader.Field.ACCEPT_ENCODING.toLowerCase()))
+                names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @return the value a request header is sent with, the values of a repeated header joined by commas,
+     * or null if it's not sent.
+     */
+    @Nullable
+    private static String valueOf(@Nullable RequestHeader header, @NonNull String name) {
+        if (header == null) return null;
+        String value = null;
+        for (com.blacksoft.arrowbow.items.Field field : header.getProperties()) {
+            if (field.getName() == null || !field.getName().equalsIgnoreCase(name)) continue;
+            value = (value == null) ? field.getValue() : value + "," + field.getValue();
+        }
+        return value;
+    }
+
+    private boolean writeMeta(@NonNull String key, @NonNull Properties properties) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(new File(directory, key + META_EXTENSION));
+            properties.store(outputStream, null);
+            return true;
+        } catch (IOException e) {
+            Log.e("Arrowbow_library", "" + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * Removes the least recently used responses until the stored bodies fit in the max size.
+     */
+    private synchronized void trimToSize() {
+        File[] bodies = directory.listFiles();
+        if (bodies == null) return;
+
+        ArrayList<File> bodyFiles = new ArrayList<>();
+        long size = 0;
+        for (File file : bodies) {
+            if (file.getName().endsWith(BODY_EXTENSION)) {
+                bodyFiles.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= maxSize) return;
+
+        File[] sorted = bodyFiles.toArray(new File[0]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long diff = metaOf(first).lastModified() - metaOf(second).lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (int i = 0; i < sorted.length && size > maxSize; i++) {
+            size -= sorted[i].length();
+            metaOf(sorted[i]).delete();
+            sorted[i].delete();
+        }
+    }
+
+    private File metaOf(@NonNull File bodyFile) {
+        String name = bodyFile.getName();
+        return new File(directory, name.substring(0, name.length() - BODY_EXTENSION.length()) + META_EXTENSION);
+    }
+
+    /**
+     * Removes every stored response.
+     */
+    public synchronized void evictAll() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files) file.delete();
+    }
+
+    /**
+     * @return the size of stored responses in bytes.
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                if (file.getName().endsWith(BODY_EXTENSION)) size += file.length();
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Statistics
+     */
+    synchronized void onHit() {
+        hitCount++;
+    }
+
+    synchronized void onRevalidated() {
+        revalidatedCount++;
+    }
+
+    synchronized void onMiss() {
+        missCount++;
+    }
+
+    /**
+     * @return the number of responses served from disk without contacting the server.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of responses served from disk after the server answered 304 (Not Modified).
+     */
+    public synchronized long getRevalidatedCount() {
+        return revalidatedCount;
+    }
+
+    /**
+     * @return the number of responses downloaded from the server.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return a file name made from the url hash.
+     */
+    static String keyOf(@NonNull String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    private static void closeQuietly(@Nullable java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A response stored in the cache
+     */
+    public final class Entry {
+        private final String key;
+        private final File bodyFile;
+        private final Properties properties;
+
+        private Entry(@NonNull String key, @NonNull File bodyFile, @NonNull Properties properties) {
+            this.key = key;
+            this.bodyFile = bodyFile;
+            this.properties = properties;
+        }
+
+        /**
+         * @return true if the response can be used without asking the server.
+         */
+        public boolean isFresh() {
+            if (Boolean.parseBoolean(properties.getProperty(KEY_NO_CACHE))) return false;
+            long expiresAt = parseLong(properties.getProperty(KEY_EXPIRES_AT));
+            return expiresAt > System.currentTimeMillis();
+        }
+
+        /**
+         * @return true if the response has an ETag or a Last-Modified date to be revalidated with.
+         */
+        public boolean hasValidators() {
+            return getEtag() != null || getLastModified() != null;
+        }
+
+        /**
+         * Adds the conditional headers to a request, so the server answers 304 if the response didn't change.
+         */
+        void addValidators(@NonNull HttpURLConnection connection) {
+            if (getEtag() != null)
+                connection.setRequestProperty(RequestHeader.Field.IF_NONE_MATCH, getEtag());
+            if (getLastModified() != null)
+                connection.setRequestProperty(RequestHeader.Field.IF_MODIFIED_SINCE, getLastModified());
+        }
+
+        @Nullable
+        public String getEtag() {
+            return properties.getProperty(KEY_ETAG);
+        }
+
+        @Nullable
+        public String getLastModified() {
+            return properties.getProperty(KEY_LAST_MODIFIED);
+        }
+
+        @Nullable
+        public String getContentType() {
+            return properties.getProperty(KEY_CONTENT_TYPE);
+        }
+
+        @NonNull
+        public File getBodyFile() {
+            return bodyFile;
+        }
+
+        /**
+         * @return the response body as text.
+         */
+        @Nullable
+        public String readText() {
+            Reader reader = null;
+            try {
+                reader = new InputStreamReader(new FileInputStream(bodyFile), Charset.forName("UTF-8"));
+                StringBuilder text = new StringBuilder((int) Math.min(bodyFile.length(), Integer.MAX_VALUE));
+                char[] buffer = BufferPool.getChars(4096);
+                int size;
+                while ((size = reader.read(buffer)) != -1) text.append(buffer, 0, size);
+                BufferPool.recycle(buffer);
+                touch();
+                return text.toString();
+            } catch (IOException e) {
+                Log.e("Arrowbow_library", "" + e.getMessage());
+                return null;
+            } finally {
+                closeQuietly(reader);
+            }
+        }
+
+        /**
+         * Gives the response body as a file in the storage directory, the file delivered last time is returned
+         * if it's in this directory and still exists unchanged, otherwise the body is copied again.
+         *
+         * @param storageDirectory: where the downloaded files are stored.
+         * @return file path or null.
+         */
+        @Nullable
+        public String deliverFile(@NonNull String storageDirectory) {
+            touch();
+            String deliveredPath = properties.getProperty(KEY_DELIVERED_PATH);
+            if (deliveredPath != null) {
+                File delivered = new File(deliveredPath);
+                if (delivered.isFile() && delivered.length() == bodyFile.length()
+                        && isInside(delivered, storageDirectory)) return deliveredPath;
+            }
+
+            String contentType = getContentType();
+            String fileName = StorageUtils.randomNameWithExtension("arrowbow_download",
+                    contentType == null ? "" : contentType);
+            String path = new FileSaver().save(storageDirectory, fileName, bodyFile);
+
+            if (path != null) {
+                synchronized (HttpCache.this) {
+                    properties.setProperty(KEY_DELIVERED_PATH, path);
+                    writeMeta(key, properties);
+                }
+            }
+            return path;
+        }
+
+        /**
+         * @return true if the file is stored right in this directory.
+         */
+        private boolean isInside(@NonNull File file, @NonNull String directory) {
+            try {
+                File parent = file.getCanonicalFile().getParentFile();
+                return parent != null && parent.equals(new File(directory).getCanonicalFile());
+            } catch (IOException e) {
+                Log.e("Arrowbow_library", "" + e.getMessage());
+                return false;
+            }
+        }
+
+        /**
+         * marks the response as recently used.
+         */
+        private void touch() {
+            new File(directory, key + META_EXTENSION).setLastModified(System.currentTimeMillis());
+        }
+
+        private long parseLong(@Nullable String value) {
+            if (value == null) return 0;
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
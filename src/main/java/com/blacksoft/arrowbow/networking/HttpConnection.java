@@ -1,7 +1,6 @@
 package com.blacksoft.arrowbow.networking;
 
-import android.os.Handler;
-import android.os.Looper;
+import android.os.Build;
 import android.os.Process;
 import android.util.Log;
 
@@ -9,29 +8,31 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.blacksoft.arrowbow.items.Field;
+import com.blacksoft.arrowbow.storage_manager.BufferPool;
 import com.blacksoft.arrowbow.storage_manager.FileSaver;
 import com.blacksoft.arrowbow.storage_manager.StorageUtils;
+import com.blacksoft.arrowbow.utils.MainThreadDispatcher;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author AbdelWadoud Rasmi
@@ -72,7 +73,9 @@ public class HttpConnection {
     public static final int DATATYPE_FILE = 3;
     public static final int DATATYPE_MULTI_PART_DATA_FORM = 7;
     public static final int DATATYPE_INPUT_STREAM = 10;
+    public static final int DATATYPE_TEXT_STREAM = 11;
     public static final int DATATYPE_MODEL = 12;
+    public static final int DATATYPE_BYTE_STREAM = 13;
 
     /**
      * Thread priority, when it has to compete with other threads to perform some work on the system resources.
@@ -89,6 +92,31 @@ public class HttpConnection {
     private static final String CONNECTION_METHOD_DELETE = "DELETE";
     private static final String CONNECTION_METHOD_PUT = "PUT";
     private static final String CONNECTION_METHOD_PATCH = "PATCH";
+    /**
+     * Maximum number of bytes read from a response before giving its connection back to the pool
+     */
+    private static final int MAX_DRAINED_BYTES = 64 * 1024;
+    /**
+     * Policy used by the requests that didn't choose their own one.
+     */
+    private static final RetryPolicy DEFAULT_RETRY_POLICY = new RetryPolicy();
+    /**
+     * Listener of the requests that didn't choose their own one.
+     */
+    private static volatile HttpEventListener defaultEventListener;
+
+    /**
+     * Number of chars read at once from text responses
+     */
+    private static final int TEXT_CHUNK_SIZE = 8192;
+    /**
+     * Number of bytes read at once from byte streams
+     */
+    private static final int BYTE_CHUNK_SIZE = 16 * 1024;
+    /**
+     * Response code of a range request the server can't satisfy
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
     /**
      * used to post multipart data form, it separates fields
      */
@@ -121,6 +149,127 @@ public class HttpConnection {
      */
     private int readTimeout = 3000;
 
+    /**
+     * Whether an interrupted file download is kept on disk to be resumed by the next attempt.
+     */
+    private boolean resumable = false;
+
+    /**
+     * Maximum number of connections used to download one file.
+     */
+    private int maxSegments = 1;
+
+    /**
+     * Whether the request goes on after its task returned, the final event is then delivered by another thread.
+     */
+    private volatile boolean pendingCompletion = false;
+
+    /**
+     * Whether the final event of the request was already given, a request has exactly one.
+     */
+    private final AtomicBoolean finalFlagDelivered = new AtomicBoolean(false);
+
+    /**
+     * Events given to the user by the attempts of the request, a retry doesn't give them again:
+     * the non final flags as bits, and the highest progress shown. Guarded by this object's lock.
+     */
+    private int deliveredFlags = 0;
+    private short deliveredDownloadProgress = -1;
+    private short deliveredUploadProgress = -1;
+    private long deliveredUploadBytes = -1;
+
+    /**
+     * Whether identical GET requests running at the same time share one transfer.
+     */
+    private boolean coalesceRequests = true;
+
+    /**
+     * Key of the transfer this request leads or follows, when identical requests may share it.
+     */
+    private volatile String coalescingKey;
+
+    /**
+     * Whether the installed {@link HttpCache} is used for text and file downloads.
+     */
+    private boolean useCache = true;
+
+    /**
+     * Whether connections are given back to the platform pool to be reused instead of being disconnected.
+     */
+    private boolean reuseConnection = false;
+
+    /**
+     * Whether compressed responses are negotiated with the server and decoded before reaching the user.
+     */
+    private boolean decodeResponses = true;
+
+    /**
+     * Minimum size in bytes of a text body sent gzip compressed, negative to never compress it.
+     */
+    private int requestCompressionThreshold = -1;
+
+    /**
+     * Whether downloaded files of a known size are allocated before being written.
+     */
+    private boolean preallocateFiles = false;
+
+    /**
+     * Delivers the download progress to the ui thread.
+     */
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher(this);
+
+    /**
+     * The task holding this request in the {@link RequestExecutor} lanes.
+     */
+    private volatile RequestExecutor.Task executorTask;
+
+    /**
+     * Decides whether a failed request is sent again, null to never retry.
+     */
+    private RetryPolicy retryPolicy = DEFAULT_RETRY_POLICY;
+
+    /**
+     * Number of the running attempt of the request, starting from 1.
+     */
+    private volatile int attempt = 1;
+
+    /**
+     * The task performing the request, scheduled again for every retry.
+     */
+    private volatile Runnable currentRequest;
+
+    /**
+     * Whether {@link #cancel()} was called, no callback is called after that.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Whether the transfer itself was stopped by {@link #cancel()}, it goes on when other requests share it.
+     */
+    private volatile boolean aborted = false;
+
+    /**
+     * The connection currently used by the request, disconnected by {@link #cancel()}.
+     */
+    private volatile HttpURLConnection activeConnection;
+
+    /**
+     * The segmented download of the request, stopped by {@link #cancel()}.
+     */
+    private volatile SegmentedDownload segmentedDownload;
+
+    /**
+     * Timings of the running attempt, and the listener following its phases.
+     */
+    private volatile RequestTimings timings;
+    private volatile HttpEventListener eventListener;
+
+    /**
+     * Class of the object a {@link #DATATYPE_MODEL} response is read into, and whether the response is a list of it.
+     */
+    private Class<?> modelClass;
+    private boolean modelList = false;
+
     /**
      * Only one constructor
      */
@@ -142,6 +291,48 @@ public class HttpConnection {
 
     }
 
+    /**
+     * Shows progress of a multipart form upload.
+     * This is not an abstract method, in case you don't want to know the progress.
+     * this method will be executed in app main thread
+     *
+     * @param percentage:        Progress of the upload operation out of 100, -1 while the size is unknown,
+     *                           then 100 once the whole body is sent.
+     * @param uploadSize:        Size of the body you are sending in bytes, -1 if unknown.
+     * @param numberOfSentBytes: number of bytes sent till now.
+     */
+    public void showUploadProgress(short percentage, long uploadSize, long numberOfSentBytes) {
+
+    }
+
+    /**
+     * Notify Main-thread of the new progress of the upload.
+     */
+    private final void informUserWithUploadProgress(final short percentage, final long uploadSize,
+                                                    final long numberOfSentBytes) {
+        synchronized (this) {
+            /**
+             * a retry sends the body again, its progress is only shown once it goes past the previous attempt
+             */
+            if (percentage < 0) {
+                if (numberOfSentBytes <= deliveredUploadBytes) return;
+                deliveredUploadBytes = numberOfSentBytes;
+            } else {
+                if (percentage <= deliveredUploadProgress) return;
+                deliveredUploadProgress = percentage;
+            }
+        }
+        /**
+         * posting the code to be executed in the ui thread.
+         */
+        MainThreadDispatcher.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) showUploadProgress(percentage, uploadSize, numberOfSentBytes);
+            }
+        });
+    }
+
     /**
      * Notify Main-thread of the new progress of the download.
      *
@@ -150,17 +341,43 @@ public class HttpConnection {
      * @param numberOfReadBytes: number of bytes read till now.
      */
     private final void informUserWithProgress(short percentage, long downloadSize, long numberOfReadBytes) {
+        synchronized (this) {
+            /**
+             * a retry reads the response again, its progress is only shown once it goes past the previous attempt
+             */
+            if (percentage <= deliveredDownloadProgress) return;
+            deliveredDownloadProgress = percentage;
+        }
+        deliverProgress(percentage, downloadSize, numberOfReadBytes);
+
         /**
-         * posting the code to be executed in the ui thread.
+         * requests sharing this transfer get the same progress
          */
-        new Handler(Looper.getMainLooper())
-                .post(new Runnable() {
-                    @Override
-                    public void run() {
-                        showDownloadProgress(percentage, downloadSize, numberOfReadBytes);
-                    }
-                });
+        String key = coalescingKey;
+        List<HttpConnection> followers = (key != null) ? RequestCoalescer.followersOf(key, this) : null;
+        if (followers != null)
+            for (int i = 0; i < followers.size(); i++)
+                followers.get(i).deliverProgress(percentage, downloadSize, numberOfReadBytes);
+    }
 
+    /**
+     * Posts the new progress of the download to the main thread.
+     */
+    private final void deliverProgress(short percentage, long downloadSize, long numberOfReadBytes) {
+        if (cancelled) return;
+        /**
+         * only the latest progress reaches the ui thread, at most once per interval.
+         */
+        progressDispatcher.update(percentage, downloadSize, numberOfReadBytes);
+    }
+
+    /**
+     * @return the progress out of 100, 100 if the size is unknown or wrong, to prevent the Short
+     * out of range exception.
+     */
+    private static short percentageOf(long numberOfReadBytes, long size) {
+        if (size <= 0 || numberOfReadBytes > size) return 100;
+        return (short) ((numberOfReadBytes * 100) / size);
     }
 
 
@@ -195,21 +412,140 @@ public class HttpConnection {
      * @param response: the result of the current stage of the operation.
      */
     private final void informUserWithNewFlag(final int flag, @Nullable final Response response) {
+        if (isFinalFlag(flag)) {
+            /**
+             * a failure reported after the final event would end the request a second time
+             */
+            if (!finalFlagDelivered.compareAndSet(false, true)) return;
+            mark(RequestTimings.PHASE_BODY_COMPLETE);
+        } else {
+            /**
+             * the events of a failed attempt were already given, the retry doesn't repeat them
+             */
+            synchronized (this) {
+                if ((deliveredFlags & (1 << flag)) != 0) return;
+                deliveredFlags |= 1 << flag;
+            }
+        }
+        if (response != null && timings != null) response.setTimings(timings);
+
+        /**
+         * requests sharing this transfer get the same events, they are released with the last one.
+         */
+        String key = coalescingKey;
+        List<HttpConnection> followers = null;
+        if (key != null)
+            followers = isFinalFlag(flag) ? RequestCoalescer.finish(key, this)
+                    : RequestCoalescer.followersOf(key, this);
+
+        deliverFlag(flag, response);
+        if (followers != null)
+            for (int i = 0; i < followers.size(); i++) followers.get(i).deliverFlag(flag, response);
+    }
+
+    /**
+     * @return true if no other event follows this one.
+     */
+    private static boolean isFinalFlag(int flag) {
+        return flag != FLAG_REQUEST_ACCEPTED && flag != FLAG_DATA_SENT;
+    }
+
+    /**
+     * Calls doInBackgroundThread and posts doInUiThread.
+     */
+    private final void deliverFlag(final int flag, @Nullable final Response response) {
+        if (cancelled) return;
+        /**
+         * followers have no timings of their own, they were not sent.
+         */
+        final RequestTimings timings = isFinalFlag(flag) ? this.timings : null;
         /**
          * do exhaustive work in the background.
          */
         doInBackgroundThread(flag, response);
+        /**
+         * the progress recorded before this event is shown before it.
+         */
+        progressDispatcher.flush();
         /**
          * posting the code to be executed in the ui thread.
          */
-        new Handler(Looper.getMainLooper())
-                .post(new Runnable() {
-                    @Override
-                    public void run() {
-                        doInUiThread(flag, response);
-                    }
-                });
+        MainThreadDispatcher.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) return;
+                doInUiThread(flag, response);
+                if (timings != null) onCallbackDelivered(timings);
+            }
+        });
+
+    }
+
+    /**
+     * Records the delivery of the final event, with the timings of the request,
+     * an attempt is only recorded once.
+     */
+    private final void onCallbackDelivered(@NonNull RequestTimings timings) {
+        if (!timings.mark(RequestTimings.PHASE_CALLBACK_DELIVERED)) return;
+        HttpEventListener listener = getEventListener();
+        if (listener != null) listener.onCallbackDelivered(this, timings);
+        String host = hostOf(urlStr);
+        if (host != null) RequestMetrics.record(host, timings);
+    }
+
+    /**
+     * Records the time a phase of the request is reached and tells the listener.
+     *
+     * @param phase: one of {@link RequestTimings} PHASE_* values.
+     */
+    private final void mark(int phase) {
+        RequestTimings timings = this.timings;
+        if (timings == null) return;
+        timings.mark(phase);
+
+        HttpEventListener listener = getEventListener();
+        if (listener == null) return;
+        switch (phase) {
+            case RequestTimings.PHASE_QUEUED:
+                listener.onQueued(this, timings);
+                break;
+            case RequestTimings.PHASE_STARTED:
+                listener.onStarted(this, timings);
+                break;
+            case RequestTimings.PHASE_CONNECTED:
+                listener.onConnected(this, timings);
+                break;
+            case RequestTimings.PHASE_FIRST_BYTE:
+                listener.onFirstByte(this, timings);
+                break;
+            case RequestTimings.PHASE_HEADERS_PARSED:
+                listener.onHeadersParsed(this, timings);
+                break;
+            case RequestTimings.PHASE_BODY_COMPLETE:
+                listener.onBodyComplete(this, timings);
+                break;
+        }
+    }
+
+    /**
+     * Opens the connection, the request body is sent after this.
+     */
+    private final void open(@NonNull HttpURLConnection connection) throws IOException {
+        connection.connect();
+        mark(RequestTimings.PHASE_CONNECTED);
+    }
 
+    /**
+     * Waits for the status line and the headers of the response.
+     *
+     * @return the response code.
+     */
+    private final int awaitResponse(@NonNull HttpURLConnection connection) throws IOException {
+        int responseCode = connection.getResponseCode();
+        mark(RequestTimings.PHASE_FIRST_BYTE);
+        connection.getHeaderFields();
+        mark(RequestTimings.PHASE_HEADERS_PARSED);
+        return responseCode;
     }
 
     /**
@@ -274,6 +610,12 @@ public class HttpConnection {
 //                    RequestHeader.DataType.TEXT_XML);
 
 
+            /**
+             * both timeouts apply to every data type, a stalled server can't hold a thread forever.
+             */
+            connection.setConnectTimeout(connectionTimeout);
+            connection.setReadTimeout(readTimeout);
+
             /**
              *in case you want to send something to the server.
              */
@@ -287,6 +629,17 @@ public class HttpConnection {
                     connection.addRequestProperty(field.getName(), field.getValue());
                 }
 
+            /**
+             * the byte ranges of resumable and segmented downloads have to match the stored file,
+             * so they are never compressed. An Accept-Encoding field of the request header is kept as it is.
+             */
+            if (decodeResponses) {
+                if (dataType == DATATYPE_FILE && connectionMethod.equals(CONNECTION_METHOD_GET)
+                        && (resumable || maxSegments > 1))
+                    ContentEncoding.acceptIdentity(connection);
+                else ContentEncoding.accept(connection);
+            }
+
             if (dataType == DATATYPE_TEXT) {
                 /**
                  * Different text formats that can be sent across the network.
@@ -306,12 +659,6 @@ public class HttpConnection {
 //                connection.addRequestProperty(RequestHeader.Field.CONTENT_TYPE,
 //                        RequestHeader.DataType.TEXT_XML + "; charset=UTF-8");
 
-                /**
-                 * You cant's surpass 15 seconds to send or read text.
-                 */
-
-                connection.setConnectTimeout(connectionTimeout);
-
             } else if (dataType == DATATYPE_MULTI_PART_DATA_FORM) {
                 connection.setRequestProperty(RequestHeader.Field.CONTENT_TYPE,
                         RequestHeader.DataType.MULTIPART_FORM_DATA + "; " +
@@ -382,10 +729,95 @@ public class HttpConnection {
         return this;
     }
 
+    /**
+     * Downloads a text response chunk by chunk, every chunk is given to {@link #onTextChunk(char[], int)}
+     * as soon as it arrives, so big responses can be parsed without holding them in memory.
+     * <p>
+     * Result in callback methods will be a Long equal to the number of chars read.
+     *
+     * @param url:           url you want to get your data from.
+     * @param requestHeader: the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                       its own request property
+     *                       {@link Field}.
+     */
+    public final HttpConnection getTextStream(@Nullable String url,
+                                              @Nullable RequestHeader requestHeader) {
+        this.dataType = DATATYPE_TEXT_STREAM;
+        this.urlStr = url;
+        readFromServer(requestHeader, null);
+        return this;
+    }
+
+    /**
+     * Downloads a JSON response and reads it into an object of the given class while it arrives,
+     * see {@link ModelBinder} for the supported classes.
+     * <p>
+     * Result in callback methods will be an instance of the model class, or null if the response is null.
+     *
+     * @param url:           url you want to get your data from.
+     * @param requestHeader: the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                       its own request property
+     *                       {@link Field}.
+     * @param modelClass:    class of the object.
+     */
+    public final HttpConnection getModel(@Nullable String url,
+                                         @Nullable RequestHeader requestHeader,
+                                         @NonNull Class<?> modelClass) {
+        this.dataType = DATATYPE_MODEL;
+        this.urlStr = url;
+        this.modelClass = modelClass;
+        this.modelList = false;
+        readFromServer(requestHeader, null);
+        return this;
+    }
+
+    /**
+     * Downloads a JSON array and reads it into a list of objects of the given class while it arrives,
+     * see {@link ModelBinder} for the supported classes.
+     * <p>
+     * Result in callback methods will be an ArrayList of the item class, or null if the response is null.
+     *
+     * @param url:           url you want to get your data from.
+     * @param requestHeader: the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                       its own request property
+     *                       {@link Field}.
+     * @param itemClass:     class of the array items.
+     */
+    public final HttpConnection getModelList(@Nullable String url,
+                                             @Nullable RequestHeader requestHeader,
+                                             @NonNull Class<?> itemClass) {
+        this.dataType = DATATYPE_MODEL;
+        this.urlStr = url;
+        this.modelClass = itemClass;
+        this.modelList = true;
+        readFromServer(requestHeader, null);
+        return this;
+    }
+
+    /**
+     * Downloads a response chunk by chunk, every chunk is given to {@link #onChunk(byte[], int)}
+     * as soon as it arrives, so big responses can be processed without holding them in memory or on disk.
+     * <p>
+     * Result in callback methods will be a Long equal to the number of bytes read.
+     *
+     * @param url:           url you want to get your data from.
+     * @param requestHeader: the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                       its own request property
+     *                       {@link Field}.
+     */
+    public final HttpConnection getByteStream(@Nullable String url,
+                                              @Nullable RequestHeader requestHeader) {
+        this.dataType = DATATYPE_BYTE_STREAM;
+        this.urlStr = url;
+        readFromServer(requestHeader, null);
+        return this;
+    }
+
     /**
      * Exposes an input stream to be read from.
      * <p>
-     * Result in callback methods will be a String equal to the returned value from server.
+     * Result in callback methods will be a {@link ResponseStream} holding the open connection, it has to be read
+     * away from the main thread and closed by the user, closing it releases the connection.
      *
      * @param url:           url you want to get your data from.
      * @param requestHeader: the header fields you want to pu into your http request, every {@link RequestHeader} has
@@ -411,11 +843,21 @@ public class HttpConnection {
     private final void readFromServer(@Nullable final RequestHeader requestHeader,
                                       @Nullable String storageDirectory) {
 
-        Thread readingThread = new Thread(new Runnable() {
+        /**
+         * an identical request is already downloading the same thing, this one waits for its result.
+         */
+        coalescingKey = null;
+        if (coalesceRequests && urlStr != null
+                && (dataType == DATATYPE_TEXT || dataType == DATATYPE_FILE)) {
+            String key = RequestCoalescer.keyOf(CONNECTION_METHOD_GET, urlStr, requestHeader, dataType, storageDirectory);
+            coalescingKey = key;
+            if (RequestCoalescer.join(key, this)) return;
+        }
+
+        Runnable readingTask = new Runnable() {
             @Override
             public void run() {
                 Response response = new Response(null, "");
-                Process.setThreadPriority(threadPriority);
                 /**
                  * creates an {@link HttpURLConnection} and fill it with parameters
                  */
@@ -428,8 +870,35 @@ public class HttpConnection {
                     informUserWithNewFlag(FLAG_WRONG_URL, response.setResult("There something wrong about this Url !"));
                     return;
                 }
+
+                /**
+                 * looking for a stored response, a fresh one is served without contacting the server.
+                 */
+                HttpCache cache = (useCache && (dataType == DATATYPE_TEXT || dataType == DATATYPE_FILE))
+                        ? HttpCache.getInstalled() : null;
+                HttpCache.Entry cachedEntry = (cache != null) ? cache.get(urlStr, requestHeader) : null;
+                if (cachedEntry != null && cachedEntry.isFresh()
+                        && deliverCachedResponse(cachedEntry, response, storageDirectory)) {
+                    cache.onHit();
+                    return;
+                }
+
                 HttpURLConnection connection = connectToServer(url, CONNECTION_METHOD_GET, requestHeader);
+                if (connection != null && !track(connection)) return;
                 InputStream inputStream = null;
+                final boolean decodeResponse = decodesResponses(requestHeader);
+                if (connection != null && cachedEntry != null && cachedEntry.hasValidators())
+                    cachedEntry.addValidators(connection);
+
+                /**
+                 * asking only for the bytes a previous attempt didn't get
+                 */
+                final PartialDownload partialDownload = (resumable && dataType == DATATYPE_FILE
+                        && storageDirectory != null) ? new PartialDownload(storageDirectory, urlStr) : null;
+                if (connection != null && partialDownload != null)
+                    partialDownload.addRangeHeaders(connection);
+                if (reuseConnection && connection != null)
+                    ConnectionPoolStats.onConnectionAcquired(url.getHost());
                 if (connection == null) {
                     /**
                      * Notify User with new occurring event
@@ -439,18 +908,50 @@ public class HttpConnection {
                 } else {
 
                     try {
+                        open(connection);
+                        awaitResponse(connection);
                         // preparing response
                         response.setHttpURLConnection(connection);
 
+                        /**
+                         * Case the stored response is still valid
+                         */
+                        if (cachedEntry != null
+                                && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                            cache.update(cachedEntry, connection);
+                            if (deliverCachedResponse(cachedEntry, response, storageDirectory)) {
+                                cache.onRevalidated();
+                                return;
+                            }
+                        }
+                        if (cache != null) cache.onMiss();
+
                         /**
                          * Case request rejected
                          */
-                        if (connection.getResponseCode() != successfulResponseCode) {
+                        if (connection.getResponseCode() != successfulResponseCode
+                                && !(partialDownload != null && partialDownload.isResumed(connection))) {
+                            /**
+                             * the partial file doesn't match the file on the server anymore
+                             */
+                            if (partialDownload != null
+                                    && connection.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE)
+                                partialDownload.discard();
+
+                            if (retryLater(CONNECTION_METHOD_GET, null, connection)) {
+                                /**
+                                 * the error body is drained or closed with the connection
+                                 */
+                                inputStream = connection.getErrorStream();
+                                return;
+                            }
+
                             /**
                              * Reading Error message and returning it to the user
                              */
-                            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), Charset.forName("UTF-8")));
-                            long downloadSize = connection.getContentLength();
+                            Reader reader = new InputStreamReader(
+                                    decode(connection, connection.getErrorStream(), decodeResponse), Charset.forName("UTF-8"));
+                            long downloadSize = contentLength(connection, decodeResponse);
                             String errorMessage = buildTextFromBuffer(reader, downloadSize) + " Response Code: " + connection.getResponseCode();
                             /**
                              * Notify User with new occurring event
@@ -458,8 +959,6 @@ public class HttpConnection {
                             informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, response.setResult(errorMessage));
 
                             if (reader != null) reader.close();
-                            if (inputStream != null) inputStream.close();
-                            if (connection != null) connection.disconnect();
 
                             return;
                         } else {
@@ -472,30 +971,35 @@ public class HttpConnection {
                             /**
                              * reading stream from the server & converting it to the specified data type
                              */
-                            inputStream = connection.getInputStream();
-                            long downloadSize = connection.getContentLength();
+                            inputStream = decode(connection, connection.getInputStream(), decodeResponse);
+                            long downloadSize = contentLength(connection, decodeResponse);
                             informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Started download of " + downloadSize + " bytes"));
 
                             switch (dataType) {
                                 case DATATYPE_TEXT:
                                     String result = null;
+                                    IOException readingError = null;
                                     try {
-                                        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+                                        Reader reader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
                                         result = buildTextFromBuffer(reader, downloadSize);
                                         reader.close();
+                                        inputStream = null;
 
                                     } catch (IOException e) {
                                         if (e != null) {
                                             e.printStackTrace();
                                             Log.e("Arrowbow_library", e.getMessage());
                                         }
+                                        readingError = e;
                                     } finally {
                                         /**
                                          * Notify User with new occurring event
                                          */
                                         if (result != null) {
+                                            if (cache != null) cache.put(urlStr, requestHeader, connection, result);
                                             informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(result));
-                                        } else {
+                                        } else if (readingError == null
+                                                || !retryLater(CONNECTION_METHOD_GET, readingError, null)) {
                                             informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("No Response from Server except it accepted your request !"));
                                         }
                                     }
@@ -506,39 +1010,117 @@ public class HttpConnection {
                                     String fileName = StorageUtils
                                             .randomNameWithExtension("arrowbow_download", contentType);
 
+                                    /**
+                                     * a resumed download reports the progress of the whole file
+                                     */
+                                    final long fileSize = (partialDownload != null)
+                                            ? partialDownload.getTotalLength(connection) : downloadSize;
 
-                                    String path = new FileSaver() {
-                                        /**
-                                         *This var is declared to minimize the number of main thread calls when,
-                                         * the download size is so big we might have the same progress many times.
-                                         */
-                                        short lastProgress = 0;
+                                    /**
+                                     * big files are downloaded over several connections, the result is delivered
+                                     * by the last one to finish.
+                                     */
+                                    if (partialDownload == null && maxSegments > 1
+                                            && SegmentedDownload.isSupported(connection, fileSize)) {
+                                        startSegmentedDownload(url, requestHeader, connection, inputStream,
+                                                storageDirectory, fileName, fileSize, response, cache);
+                                        inputStream = null;
+                                        connection = null;
+                                        break;
+                                    }
 
-                                        @Override
-                                        public void showProgress(long numberOfReadBytes) {
-                                            short percentage = 0;
+                                    /**
+                                     * a full storage fails the request before its body is read
+                                     */
+                                    boolean preallocate = preallocateFiles && partialDownload == null && fileSize > 0;
+                                    if (preallocate && !StorageUtils.hasUsableSpace(storageDirectory, fileSize)) {
+                                        informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult(
+                                                "Not enough free space to store " + fileSize + " bytes !"));
+                                        break;
+                                    }
 
-                                            if (downloadSize >= numberOfReadBytes)
-                                                percentage = Short.valueOf(
-                                                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
+                                    FileSaver fileSaver = new DownloadSaver(fileSize);
+
+                                    String path;
+                                    if (preallocate)
+                                        path = fileSaver.save(storageDirectory, fileName, inputStream, fileSize);
+                                    else if (partialDownload == null)
+                                        path = fileSaver.save(storageDirectory, fileName, inputStream);
+                                    else {
+                                        boolean append = partialDownload.begin(connection);
+                                        path = fileSaver.copyPaste(partialDownload.getPartFile().getPath(), inputStream, append)
+                                                ? partialDownload.complete(fileName) : null;
+                                    }
+                                    /**
+                                     * the file saver reads the stream till its end and closes it
+                                     */
+                                    inputStream = null;
 
-                                            else percentage = 100;
+                                    if (aborted) {
+                                        new File(storageDirectory, fileName).delete();
+                                        break;
+                                    }
 
-                                            if (percentage > lastProgress) {
-                                                lastProgress = percentage;
-                                                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
-                                            }
+                                    if (path == null && partialDownload != null) {
+                                        informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("Download interrupted after "
+                                                + partialDownload.getPartFile().length() + " bytes, call getFile again to resume it !"));
+                                        break;
+                                    }
 
+                                    if (cache != null && path != null)
+                                        cache.put(urlStr, requestHeader, connection, new File(path));
+                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
+                                    break;
 
-                                        }
-                                    }.save(storageDirectory, fileName, inputStream);
+                                case DATATYPE_TEXT_STREAM:
+                                    /**
+                                     * the stream is released with the connection, even if the user stopped reading it.
+                                     */
+                                    Reader textReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+                                    long numberOfReadChars = readTextChunks(textReader, downloadSize, null);
+                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(numberOfReadChars));
+                                    break;
 
+                                case DATATYPE_MODEL:
+                                    /**
+                                     * the objects are built while the bytes arrive, the text is never held whole.
+                                     */
+                                    Reader modelReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+                                    Object model;
+                                    try {
+                                        model = modelList ? ModelBinder.bindList(modelReader, modelClass)
+                                                : ModelBinder.bind(modelReader, modelClass);
+                                    } catch (IOException e) {
+                                        /**
+                                         * network failures go on to be retried, a response that isn't
+                                         * the expected JSON is reported right away.
+                                         */
+                                        RetryPolicy policy = retryPolicy;
+                                        if (aborted || (policy != null && policy.isRetryable(e))) throw e;
+                                        e.printStackTrace();
+                                        Log.e("Arrowbow_library", e.getMessage());
+                                        informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult(e.getMessage()));
+                                        break;
+                                    }
+                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(model));
+                                    break;
 
-                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
+                                case DATATYPE_BYTE_STREAM:
+                                    long numberOfReadBytes = readByteChunks(inputStream, downloadSize);
+                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(numberOfReadBytes));
                                     break;
 
                                 case DATATYPE_INPUT_STREAM:
-                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(inputStream));
+                                    /**
+                                     * the user owns the stream and its connection from now on,
+                                     * a request cancelled before the delivery closes it.
+                                     */
+                                    ResponseStream responseStream = new ResponseStream(HttpConnection.this,
+                                            connection, inputStream, downloadSize);
+                                    inputStream = null;
+                                    connection = null;
+                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(responseStream));
+                                    if (cancelled) responseStream.abort();
                                     break;
                             }
 
@@ -549,28 +1131,19 @@ public class HttpConnection {
                             e.printStackTrace();
                             Log.e("Arrowbow_library", e.getMessage());
                         }
+                        if (retryLater(CONNECTION_METHOD_GET, e, null)) return;
                         informUserWithNewFlag(FLAG_ERROR_MESSAGE, null);
                         return;
 
                     } finally {
-                        if (connection != null) connection.disconnect();
-
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                if (e != null) {
-                                    e.printStackTrace();
-//                                    Log.e("Arrowbow_library", e.getMessage());
-                                }
-                            }
-                        }
+                        releaseConnection(connection, inputStream);
+                        if (aborted && partialDownload != null) partialDownload.discard();
                     }
                 }
 
             }
-        });
-        readingThread.start();
+        };
+        executeRequest(readingTask);
     }
 
     /**
@@ -682,14 +1255,15 @@ public class HttpConnection {
      * @param responseDataType:                 integer to specify whether it's a text or a File
      * @param storageDirectoryIfResponseIsFile: where to put the file in case the response is a file
      */
-    public final void postMultiPartDataForm(@Nullable String url,
-                                            @Nullable RequestHeader requestHeader,
-                                            int responseDataType,
-                                            @Nullable String storageDirectoryIfResponseIsFile,
-                                            @Nullable Field... fields) {
+    public final HttpConnection postMultiPartDataForm(@Nullable String url,
+                                                      @Nullable RequestHeader requestHeader,
+                                                      int responseDataType,
+                                                      @Nullable String storageDirectoryIfResponseIsFile,
+                                                      @Nullable Field... fields) {
         this.urlStr = url;
         this.dataType = DATATYPE_MULTI_PART_DATA_FORM;
         writeToServer(fields, CONNECTION_METHOD_POST, requestHeader, responseDataType, storageDirectoryIfResponseIsFile);
+        return this;
     }
 
     /**
@@ -706,11 +1280,11 @@ public class HttpConnection {
                                      @Nullable final RequestHeader requestHeader,
                                      int responseDataType,
                                      @Nullable String storageDirectoryIfResponseIsFile) {
-        Thread writingTask = new Thread(new Runnable() {
+        coalescingKey = null;
+        Runnable writingTask = new Runnable() {
             @Override
             public void run() {
                 Response response = new Response(null, "");
-                Process.setThreadPriority(threadPriority);
                 /** http url connection object to connect to the server and read stream from it*/
                 URL url = createUrl();
 
@@ -724,8 +1298,10 @@ public class HttpConnection {
 
 
                 HttpURLConnection connection = null;
+                final boolean decodeResponse = decodesResponses(requestHeader);
                 if (dataType != DATATYPE_MULTI_PART_DATA_FORM) {
                     connection = connectToServer(url, connectionMethod, requestHeader);
+                    if (connection != null && !track(connection)) return;
 
                     if (connection == null) {
                         /**
@@ -734,46 +1310,70 @@ public class HttpConnection {
                         informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("We couldn't even connect to this Url !"));
                         return;
                     }
+                    if (reuseConnection) ConnectionPoolStats.onConnectionAcquired(url.getHost());
                     response.setHttpURLConnection(connection);
                 }
 
                 OutputStream outputStream = null;
+                /**
+                 * body of an error response left unread when the request is retried
+                 */
+                InputStream unreadBody = null;
 
                 try {
 
-                    BufferedReader reader = null;
+                    Reader reader = null;
 
                     switch (dataType) {
                         case DATATYPE_TEXT:
                             String contentStr = (String) content;
+                            if (contentStr == null) contentStr = "";
+                            byte[] body = contentStr.trim().getBytes();
+
+                            /**
+                             * big bodies are compressed, the delete request is already connected at this point
+                             */
+                            if (!connectionMethod.equals(CONNECTION_METHOD_DELETE)) {
+                                if (requestCompressionThreshold >= 0 && body.length >= requestCompressionThreshold) {
+                                    body = ContentEncoding.gzip(body);
+                                    connection.setRequestProperty(RequestHeader.Field.CONTENT_ENCODING, ContentEncoding.GZIP);
+                                }
+                                connection.setFixedLengthStreamingMode(body.length);
+                            }
+
                             outputStream = connection.getOutputStream();
+                            mark(RequestTimings.PHASE_CONNECTED);
                             BufferedOutputStream writer = new BufferedOutputStream(outputStream);
                             try {
 
                                 /**
                                  * sending json to the server
                                  */
-                                if (contentStr == null) contentStr = "";
-                                writer.write(contentStr.trim().getBytes());
+                                writer.write(body);
                                 writer.flush();
 
 
                                 /**
                                  * reading response from server
                                  */
-                                if (connection.getResponseCode() != 200) {
+                                if (awaitResponse(connection) != 200) {
+                                    if (retryLater(connectionMethod, null, connection)) {
+                                        unreadBody = connection.getErrorStream();
+                                        return;
+                                    }
                                     /**
                                      * case of error
                                      */
-                                    reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), Charset.forName("UTF-8")));
-                                    long downloadSize = connection.getContentLength();
+                                    reader = new InputStreamReader(
+                                            decode(connection, connection.getErrorStream(), decodeResponse), Charset.forName("UTF-8"));
+                                    long downloadSize = contentLength(connection, decodeResponse);
                                     String errorMessage = buildTextFromBuffer(reader, downloadSize) + " Response Code: " + connection.getResponseCode();
 
                                     /**
                                      * Notify User with new occurring event
                                      */
                                     informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult(errorMessage));
-                                    throw new IOException();
+                                    return;
                                 }
 
 
@@ -792,40 +1392,20 @@ public class HttpConnection {
                                  */
 
                                 if (responseDataType == DATATYPE_TEXT) {
-                                    reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charset.forName("UTF-8")));
-                                    long downloadSize = connection.getContentLength();
+                                    reader = new InputStreamReader(
+                                            decode(connection, connection.getInputStream(), decodeResponse), Charset.forName("UTF-8"));
+                                    long downloadSize = contentLength(connection, decodeResponse);
                                     informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(buildTextFromBuffer(reader, downloadSize)));
 
                                 } else {
                                     String contentType = connection.getContentType();
                                     String fileName = StorageUtils.randomNameWithExtension("arrowbow_download", contentType);
 
-                                    InputStream inputStream = connection.getInputStream();
-                                    long downloadSize = connection.getContentLength();
-
-                                    String path = new FileSaver() {
-                                        /**
-                                         *This var is declared to minimize the number of main thread calls when,
-                                         * the download size is so big we might have the same progress many times.
-                                         */
-                                        short lastProgress = 0;
+                                    InputStream inputStream = decode(connection, connection.getInputStream(), decodeResponse);
+                                    long downloadSize = contentLength(connection, decodeResponse);
 
-                                        @Override
-                                        public void showProgress(long numberOfReadBytes) {
-                                            short percentage = 0;
-
-                                            if (downloadSize >= numberOfReadBytes)
-                                                percentage = Short.valueOf(
-                                                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
-                                            else percentage = 100;
-
-                                            if (percentage > lastProgress) {
-                                                lastProgress = percentage;
-                                                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
-                                            }
-
-                                        }
-                                    }.save(storageDirectoryIfResponseIsFile, fileName, inputStream);
+                                    String path = new DownloadSaver(downloadSize).save(storageDirectoryIfResponseIsFile, fileName, inputStream);
+                                    if (aborted && path != null) new File(path).delete();
 
                                     informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
                                 }
@@ -836,6 +1416,7 @@ public class HttpConnection {
                                     e.printStackTrace();
                                     Log.e("Arrowbow_library", e.getMessage());
                                 }
+                                if (retryLater(connectionMethod, e, null)) return;
                                 /**
                                  * Notify User with new occurring event
                                  */
@@ -851,10 +1432,10 @@ public class HttpConnection {
 
                         case DATATYPE_MULTI_PART_DATA_FORM:
 
-                            PrintWriter printWriter = null;
                             try {
                                 Field[] values = ((Field[]) content);
-                                HttpPostMultiPart post = new HttpPostMultiPart(urlStr, "UTF-8", requestHeader.getPropertiesMap(), responseDataType, storageDirectoryIfResponseIsFile);
+                                HttpPostMultiPart post = new HttpPostMultiPart(urlStr, "UTF-8",
+                                        (requestHeader != null) ? requestHeader.getPropertiesMap() : null, responseDataType, storageDirectoryIfResponseIsFile);
 
                                 /**
                                  * distinguish btw files and strings
@@ -882,6 +1463,7 @@ public class HttpConnection {
                                     e.printStackTrace();
                                     Log.e("Arrowbow_library", e.getMessage());
                                 }
+                                if (retryLater(connectionMethod, e, null)) return;
                                 informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, null);
 
                             }
@@ -900,7 +1482,7 @@ public class HttpConnection {
 
                 } finally {
 
-                    if (connection != null) connection.disconnect();
+                    releaseConnection(connection, unreadBody);
 
                     if (outputStream != null) {
                         try {
@@ -916,10 +1498,365 @@ public class HttpConnection {
 
             }
 
-        });
-        writingTask.start();
+        };
+        executeRequest(writingTask);
+    }
+
+    /**
+     * Hands a request to the shared {@link RequestExecutor}, with this connection's thread priority.
+     *
+     * @param task: reading or writing task.
+     */
+    private final void executeRequest(@NonNull final Runnable task) {
+        pendingCompletion = false;
+        finalFlagDelivered.set(false);
+        synchronized (this) {
+            deliveredFlags = 0;
+            deliveredDownloadProgress = -1;
+            deliveredUploadProgress = -1;
+            deliveredUploadBytes = -1;
+        }
+        final String key = coalescingKey;
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                pendingCompletion = false;
+                mark(RequestTimings.PHASE_STARTED);
+                try {
+                    /**
+                     * a request cancelled before getting a thread does nothing
+                     */
+                    if (!aborted) task.run();
+                } finally {
+                    /**
+                     * releasing the followers in case the request ended without a final event.
+                     */
+                    List<HttpConnection> followers = (key == null || pendingCompletion) ? null
+                            : RequestCoalescer.finish(key, HttpConnection.this);
+                    if (followers != null)
+                        for (int i = 0; i < followers.size(); i++)
+                            followers.get(i).deliverFlag(FLAG_ERROR_MESSAGE, new Response(null, "Shared request failed !"));
+                }
+            }
+        };
+
+        attempt = 1;
+        currentRequest = request;
+        timings = new RequestTimings(attempt);
+        mark(RequestTimings.PHASE_QUEUED);
+        executorTask = RequestExecutor.getInstance().execute(request, threadPriority, hostOf(urlStr));
+        if (executorTask == null) {
+            /**
+             * Notify User with new occurring event
+             */
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, new Response(null, "Too many pending requests, try again later !"));
+        }
+    }
+
+
+    /**
+     * Schedules another attempt of the running request when the {@link RetryPolicy} allows it,
+     * the request waits in the {@link RequestExecutor} scheduler without holding a thread.
+     *
+     * @param connectionMethod: method of the request.
+     * @param exception:        the failure, or null if the server answered.
+     * @param connection:       the connection that got an error response, or null.
+     * @return true if the request will be attempted again, the failure mustn't be reported.
+     */
+    private final boolean retryLater(@NonNull String connectionMethod, @Nullable IOException exception,
+                                     @Nullable HttpURLConnection connection) {
+        RetryPolicy policy = retryPolicy;
+        Runnable request = currentRequest;
+        if (policy == null || request == null || aborted
+                || attempt >= policy.getMaxAttempts() || !policy.isRetryable(connectionMethod))
+            return false;
+
+        try {
+            if (exception != null ? !policy.isRetryable(exception)
+                    : (connection == null || !policy.isRetryable(connection.getResponseCode())))
+                return false;
+        } catch (IOException e) {
+            return false;
+        }
+
+        long delayMillis = policy.getDelayMillis(attempt, connection);
+        if (delayMillis < 0) return false;
+
+        Log.e("Arrowbow_library", "Attempt " + attempt + " of " + urlStr + " failed, retrying in " + delayMillis + " ms");
+        attempt++;
+        /**
+         * the next attempt delivers the final event
+         */
+        pendingCompletion = true;
+        timings = new RequestTimings(attempt);
+        mark(RequestTimings.PHASE_QUEUED);
+        RequestExecutor.Task task = RequestExecutor.getInstance().schedule(request, threadPriority, hostOf(urlStr), delayMillis);
+        executorTask = task;
+        if (aborted) task.cancel();
+        return true;
+    }
+
+    /**
+     * @return the host of a url, or null if the url is wrong, such requests aren't limited per host.
+     */
+    @Nullable
+    private static String hostOf(@Nullable String urlStr) {
+        if (urlStr == null) return null;
+        try {
+            String host = new URL(urlStr).getHost();
+            return (host == null || host.isEmpty()) ? null : host;
+        } catch (MalformedURLException e) {
+            return null;
+        }
     }
 
+    /**
+     * Keeps the connection of the request so {@link #cancel()} can abort it.
+     *
+     * @return false if the request is already cancelled, the connection is then disconnected.
+     */
+    private final boolean track(@NonNull HttpURLConnection connection) {
+        activeConnection = connection;
+        if (!aborted) return true;
+        connection.disconnect();
+        return false;
+    }
+
+    /**
+     * Cancels the request: a waiting request leaves the {@link RequestExecutor}, a running one has its connection
+     * aborted and the file it was downloading deleted, and no callback is called anymore, even for the events
+     * already posted to the main thread.
+     * <p>
+     * A request sharing its transfer with other identical requests only stops receiving callbacks,
+     * the transfer goes on for the others. A cancelled {@link HttpConnection} can't be used again.
+     */
+    public final void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+
+        String key = coalescingKey;
+        if (key != null) {
+            /**
+             * a follower has no transfer of its own, it only stops waiting for its leader's.
+             */
+            if (RequestCoalescer.leave(key, this)) return;
+            if (!RequestCoalescer.abandon(key, this)) return;
+        }
+        abortTransfer();
+    }
+
+    /**
+     * Stops the transfer of a cancelled request, freeing its executor slot or the socket it's reading.
+     */
+    final void abortTransfer() {
+        aborted = true;
+
+        RequestExecutor.Task task = executorTask;
+        if (task != null) task.cancel();
+        HttpURLConnection connection = activeConnection;
+        if (connection != null) connection.disconnect();
+        SegmentedDownload download = segmentedDownload;
+        if (download != null) download.cancel();
+    }
+
+    /**
+     * @return true if {@link #cancel()} was called.
+     */
+    public final boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Downloads a file over several connections, each one writing its own byte range.
+     *
+     * @param url:              request url.
+     * @param requestHeader:    request header fields, sent with every range request.
+     * @param connection:       the connection answering the first request, it reads the first range.
+     * @param inputStream:      its response stream.
+     * @param storageDirectory: where to store the file.
+     * @param fileName:         file name with extension.
+     * @param fileSize:         size of the file in bytes.
+     * @param response:         response to be delivered.
+     * @param cache:            the cache storing the file, can be null.
+     */
+    private final void startSegmentedDownload(@NonNull final URL url,
+                                              @Nullable final RequestHeader requestHeader,
+                                              @NonNull final HttpURLConnection connection,
+                                              @NonNull InputStream inputStream,
+                                              @NonNull String storageDirectory,
+                                              @NonNull String fileName,
+                                              final long fileSize,
+                                              @NonNull final Response response,
+                                              @Nullable final HttpCache cache) {
+        File directory = new File(storageDirectory);
+        directory.mkdirs();
+        final File target = new File(directory, fileName);
+
+        pendingCompletion = true;
+        SegmentedDownload download = new SegmentedDownload(target, fileSize, maxSegments, threadPriority, url.getHost()) {
+            /**
+             *This var is declared to minimize the number of main thread calls when,
+             * the download size is so big we might have the same progress many times.
+             */
+            short lastProgress = 0;
+
+            @NonNull
+            @Override
+            protected HttpURLConnection openRange(long start, long end) throws IOException {
+                HttpURLConnection rangeConnection = connectToServer(url, CONNECTION_METHOD_GET, requestHeader);
+                if (rangeConnection == null) throw new IOException("We couldn't even connect to this Url !");
+                rangeConnection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+                return rangeConnection;
+            }
+
+            @Override
+            protected void onProgress(long numberOfReadBytes, long downloadSize) {
+                short percentage = (short) ((numberOfReadBytes * 100) / downloadSize);
+                synchronized (this) {
+                    if (percentage <= lastProgress) return;
+                    lastProgress = percentage;
+                }
+                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
+            }
+
+            @Override
+            protected void onComplete(boolean success) {
+                pendingCompletion = false;
+                if (success) {
+                    if (cache != null) cache.put(urlStr, requestHeader, connection, target);
+                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(target.getPath()));
+                } else
+                    informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("Segmented download failed !"));
+            }
+        };
+        segmentedDownload = download;
+        if (aborted) download.cancel();
+        download.start(connection, inputStream);
+    }
+
+    /**
+     * Gives the user a response stored in the {@link HttpCache}.
+     *
+     * @param entry:            the stored response.
+     * @param response:         response to be filled.
+     * @param storageDirectory: where to store the file in case of a file download.
+     * @return false if the stored response couldn't be read.
+     */
+    private final boolean deliverCachedResponse(@NonNull HttpCache.Entry entry,
+                                                @NonNull Response response,
+                                                @Nullable String storageDirectory) {
+        Object result;
+        if (dataType == DATATYPE_FILE) {
+            if (storageDirectory == null) return false;
+            result = entry.deliverFile(storageDirectory);
+        } else result = entry.readText();
+
+        if (result == null) return false;
+
+        response.setFromCache(true);
+        informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Response found in cache"));
+        informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(result));
+        return true;
+    }
+
+    /**
+     * Closes a connection when its request is done, in reuse mode the response is fully read and its streams closed
+     * so the socket goes back to the platform pool, otherwise the connection is disconnected.
+     *
+     * @param connection:  the connection to be released.
+     * @param inputStream: the response stream if it wasn't read till its end, or null if it's already read and closed.
+     */
+    final void releaseConnection(@Nullable HttpURLConnection connection,
+                                         @Nullable InputStream inputStream) {
+        if (connection == null) {
+            closeQuietly(inputStream);
+            return;
+        }
+
+        if (reuseConnection) {
+            if (drain(inputStream)) {
+                ConnectionPoolStats.onConnectionReleased(connection.getURL().getHost());
+                return;
+            }
+            ConnectionPoolStats.onConnectionDiscarded();
+        } else closeQuietly(inputStream);
+
+        connection.disconnect();
+    }
+
+    /**
+     * @return true if compressed responses are negotiated by the library, a request header holding its own
+     * Accept-Encoding field receives the response as the server sent it.
+     */
+    private final boolean decodesResponses(@Nullable RequestHeader header) {
+        if (!decodeResponses) return false;
+        if (header != null && header.getProperties() != null)
+            for (Field field : header.getProperties()) {
+                if (field != null && RequestHeader.Field.ACCEPT_ENCODING.equalsIgnoreCase(field.getName()))
+                    return false;
+            }
+        return true;
+    }
+
+    /**
+     * @return the response stream without its content encoding.
+     */
+    @Nullable
+    private static InputStream decode(@NonNull HttpURLConnection connection, @Nullable InputStream inputStream,
+                                      boolean decodeResponse) throws IOException {
+        return decodeResponse ? ContentEncoding.decode(connection, inputStream) : inputStream;
+    }
+
+    /**
+     * @return the size of the response, or -1 when it's decoded because its Content-Length is the compressed size.
+     */
+    private static long contentLength(@NonNull HttpURLConnection connection, boolean decodeResponse) {
+        if (decodeResponse && ContentEncoding.isEncoded(connection)) return -1;
+        return connection.getContentLength();
+    }
+
+    /**
+     * Reads what's left of a response and closes its stream, big responses are not drained
+     * as closing the socket is cheaper than downloading them.
+     *
+     * @return true if the whole response is read.
+     */
+    private static boolean drain(@Nullable InputStream inputStream) {
+        if (inputStream == null) return true;
+
+        boolean drained = false;
+        byte[] buffer = BufferPool.getBytes(1024);
+        try {
+            long numberOfReadBytes = 0;
+            int size;
+            while ((size = inputStream.read(buffer)) != -1) {
+                numberOfReadBytes += size;
+                if (numberOfReadBytes > MAX_DRAINED_BYTES) return false;
+            }
+            drained = true;
+        } catch (Exception e) {
+            if (e != null) Log.e("Arrowbow_library", "" + e.getMessage());
+        } finally {
+            BufferPool.recycle(buffer);
+            closeQuietly(inputStream);
+        }
+        return drained;
+    }
+
+    /**
+     * closes a stream ignoring its exceptions.
+     */
+    private static void closeQuietly(@Nullable InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                if (e != null) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
     /**
      * Sets url you want to connect to.
@@ -951,11 +1888,16 @@ public class HttpConnection {
 
     /**
      * Setting thread priority over other threads running in the system.
+     * <p>
+     * It also chooses the {@link RequestExecutor} lane the request waits in, calling it while the request
+     * is waiting moves it to a higher lane.
      *
      * @param threadPriority: Whether the thread is in foreground or in background by default it's in foreground.
      */
     public final HttpConnection setThreadPriority(int threadPriority) {
         this.threadPriority = threadPriority;
+        RequestExecutor.Task task = executorTask;
+        if (task != null) task.setPriority(threadPriority);
         return this;
     }
 
@@ -1001,17 +1943,245 @@ public class HttpConnection {
         return successfulResponseCode;
     }
 
+    /**
+     * Whether the connection is given back to the platform pool when the request is done, so the next requests
+     * to the same host skip the TCP and TLS handshakes, by default it's disconnected.
+     * <p>
+     * The number of reused connections can be read from {@link ConnectionPoolStats}.
+     *
+     * @param reuseConnection: true to keep the connection alive.
+     */
+    public HttpConnection setReuseConnection(boolean reuseConnection) {
+        this.reuseConnection = reuseConnection;
+        return this;
+    }
+
+    public boolean isReuseConnection() {
+        return reuseConnection;
+    }
+
+    /**
+     * Whether text and file downloads go through the installed {@link HttpCache}, by default they do
+     * when a cache is installed.
+     *
+     * @param useCache: false to always download from the server.
+     */
+    public HttpConnection setUseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
+
+    public boolean isUseCache() {
+        return useCache;
+    }
+
+    /**
+     * Whether an interrupted file download is kept on disk, so calling {@link #getFile(String, RequestHeader, String)}
+     * again with the same url and storage directory downloads only the missing bytes, by default it starts again from zero.
+     * <p>
+     * The server has to support range requests and send an ETag or a Last-Modified date, otherwise the file
+     * is downloaded from the start.
+     *
+     * @param resumable: true to resume interrupted downloads.
+     */
+    public HttpConnection setResumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Whether big files are downloaded over several connections at the same time, each one fetching its own
+     * byte range, by default a single connection is used.
+     * <p>
+     * It's used only when the server sends {@code Accept-Ranges: bytes} and the file is bigger than 4MB,
+     * connections are added while the measured throughput grows, up to maxSegments.
+     *
+     * @param maxSegments: maximum number of connections, 1 to disable.
+     */
+    public HttpConnection setSegmentedDownload(int maxSegments) {
+        this.maxSegments = Math.max(1, maxSegments);
+        return this;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    /**
+     * Whether this text or file download shares the transfer of an identical request (same url, header fields
+     * and storage directory) running at the same time, by default it does.
+     * <p>
+     * Requests sharing a transfer receive the same {@link Response}, and the same file path for file downloads.
+     *
+     * @param coalesceRequests: false to always perform a new transfer.
+     */
+    public HttpConnection setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+        return this;
+    }
+
+    public boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    /**
+     * Allocates downloaded files on the storage before writing them, when the server tells their size.
+     * <p>
+     * The whole size is reserved with posix_fallocate from Lollipop, or by setting the file length on older
+     * devices and file systems without it, then the bytes are written into the file through its channel.
+     * A request fails before downloading anything if the storage is full, and the file isn't fragmented.
+     * It doesn't apply to resumable and compressed downloads.
+     *
+     * @param preallocateFiles: true to allocate files ahead, false by default.
+     */
+    public HttpConnection setPreallocateFiles(boolean preallocateFiles) {
+        this.preallocateFiles = preallocateFiles;
+        return this;
+    }
+
+    public boolean isPreallocateFiles() {
+        return preallocateFiles;
+    }
+
+    /**
+     * Chooses when a failed request is sent again, by default timeouts, connection failures and the 408, 429,
+     * 500, 502, 503 and 504 responses of GET, PUT and DELETE requests are attempted up to 3 times.
+     * <p>
+     * The default policy is shared by all requests, give a new {@link RetryPolicy} to change it.
+     *
+     * @param retryPolicy: the policy, null to never retry.
+     */
+    public HttpConnection setRetryPolicy(@Nullable RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    @Nullable
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return the number of the running attempt of the request, starting from 1.
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return the timings of the running attempt, null before the request is sent.
+     */
+    @Nullable
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Follows the phases of this request, see {@link HttpEventListener}.
+     *
+     * @param eventListener: the listener, null to use the default one.
+     */
+    public HttpConnection setEventListener(@Nullable HttpEventListener eventListener) {
+        this.eventListener = eventListener;
+        return this;
+    }
+
+    /**
+     * @return the listener of this request, or the default one.
+     */
+    @Nullable
+    public HttpEventListener getEventListener() {
+        HttpEventListener listener = eventListener;
+        return (listener != null) ? listener : defaultEventListener;
+    }
+
+    /**
+     * Follows the phases of all the requests that don't have their own listener.
+     *
+     * @param eventListener: the listener, null to remove it.
+     */
+    public static void setDefaultEventListener(@Nullable HttpEventListener eventListener) {
+        defaultEventListener = eventListener;
+    }
+
+    /**
+     * The minimum time between two calls of {@link #showDownloadProgress(short, long, long)}, by default one
+     * frame (16 millis), the progress recorded in between is dropped except the latest one.
+     *
+     * @param intervalMillis: interval in millis, 0 to show every progress change.
+     */
+    public HttpConnection setProgressInterval(long intervalMillis) {
+        progressDispatcher.setInterval(intervalMillis);
+        return this;
+    }
+
+    /**
+     * Whether the server is allowed to compress responses (gzip, deflate and the codings added to
+     * {@link ContentEncoding}), they are decoded before reaching the user, by default they are.
+     * <p>
+     * Resumable and segmented file downloads always ask for the bytes as they are, and an Accept-Encoding field
+     * put in the request header turns the decoding off for that request.
+     *
+     * @param decodeResponses: false to receive the responses as the platform gives them.
+     */
+    public HttpConnection setDecodeResponses(boolean decodeResponses) {
+        this.decodeResponses = decodeResponses;
+        return this;
+    }
+
+    public boolean isDecodeResponses() {
+        return decodeResponses;
+    }
+
+    /**
+     * Whether the text sent by {@link #postText}, {@link #putText} and {@link #patchText} is gzip compressed,
+     * by default it's never compressed.
+     * <p>
+     * The server has to accept {@code Content-Encoding: gzip} request bodies.
+     *
+     * @param minimumSize: texts of this size in bytes or bigger are compressed, negative to never compress them.
+     */
+    public HttpConnection setRequestCompression(int minimumSize) {
+        this.requestCompressionThreshold = minimumSize;
+        return this;
+    }
+
+    public int getRequestCompression() {
+        return requestCompressionThreshold;
+    }
+
     /**
      * Creates a string from a buffered reader and returns progress.
      *
-     * @param reader: {@link BufferedReader}
+     * @param reader: {@link Reader}
      * @return String read from reader.
      * @throws IOException .
      */
-    private final String buildTextFromBuffer(BufferedReader reader, long downloadSize) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        String line;
+    private final String buildTextFromBuffer(Reader reader, long downloadSize) throws IOException {
+        StringBuilder stringBuilder = new StringBuilder(
+                (downloadSize > 0 && downloadSize < Integer.MAX_VALUE) ? (int) downloadSize : TEXT_CHUNK_SIZE);
+        readTextChunks(reader, downloadSize, stringBuilder);
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Reads text chunk by chunk and returns progress.
+     *
+     * @param reader:       text reader.
+     * @param downloadSize: size of the response in bytes.
+     * @param text:         where the chunks are added, if null they are given to {@link #onTextChunk(char[], int)}.
+     * @return the number of chars read.
+     * @throws IOException .
+     */
+    private final long readTextChunks(Reader reader, long downloadSize, @Nullable StringBuilder text) throws IOException {
+        char[] chunk = BufferPool.getChars(TEXT_CHUNK_SIZE);
+        int size;
 
+        long numberOfReadChars = 0;
         long numberOfReadBytes = 0;
         short percentage = 100;
         /**
@@ -1020,38 +2190,121 @@ public class HttpConnection {
          */
         short lastProgress = 0;
 
-        while ((line = reader.readLine()) != null) {
-            stringBuilder.append(line);
-            numberOfReadBytes += line.getBytes().length;
+        while ((size = reader.read(chunk)) != -1) {
+            numberOfReadChars += size;
+            numberOfReadBytes += utf8Length(chunk, size);
+
+            boolean goOn = true;
+            if (text != null) text.append(chunk, 0, size);
+            else goOn = onTextChunk(chunk, size);
+
+            percentage = percentageOf(numberOfReadBytes, downloadSize);
+
+            if (percentage > lastProgress) {
+                lastProgress = percentage;
+                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
+            }
 
             /**
-             * checking if we have the right download size, to prevent the Short
-             * out of range exception
+             * a request cancelled while others share its transfer reads on for them, a stopped transfer
+             * fails so the partial response is never cached nor delivered as complete.
              */
-            if (downloadSize >= numberOfReadBytes)
-                percentage = Short.valueOf(
-                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
+            if (aborted) throw new IOException("The transfer was cancelled");
+            if (!goOn) break;
+        }
+        BufferPool.recycle(chunk);
+        return numberOfReadChars;
+    }
 
-            else percentage = 100;
+    /**
+     * Reads a response chunk by chunk and gives every chunk to {@link #onChunk(byte[], int)}.
+     *
+     * @param inputStream:  response stream.
+     * @param downloadSize: size of the response in bytes.
+     * @return the number of bytes read.
+     * @throws IOException .
+     */
+    private final long readByteChunks(InputStream inputStream, long downloadSize) throws IOException {
+        byte[] chunk = BufferPool.getBytes(BYTE_CHUNK_SIZE);
+        int size;
 
+        long numberOfReadBytes = 0;
+        short lastProgress = 0;
+
+        while ((size = inputStream.read(chunk)) != -1) {
+            numberOfReadBytes += size;
+            boolean goOn = onChunk(chunk, size);
+
+            short percentage = percentageOf(numberOfReadBytes, downloadSize);
             if (percentage > lastProgress) {
                 lastProgress = percentage;
                 informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
             }
+
+            if (aborted) throw new IOException("The transfer was cancelled");
+            if (!goOn) break;
         }
-        return stringBuilder.toString();
+        BufferPool.recycle(chunk);
+        return numberOfReadBytes;
+    }
+
+    /**
+     * @return the number of bytes these chars take in UTF-8, without encoding them.
+     */
+    private static int utf8Length(char[] chars, int length) {
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) bytes++;
+            else if (c < 0x800 || Character.isSurrogate(c)) bytes += 2; /* a surrogate pair takes 4 bytes */
+            else bytes += 3;
+        }
+        return bytes;
+    }
+
+    /**
+     * Receives the chunks of a text response downloaded using {@link #getTextStream(String, RequestHeader)},
+     * in the order they arrive, this method will be executed in a background thread.
+     * <p>
+     * The chunk array is reused for the next chunk, copy the chars you want to keep.
+     *
+     * @param chunk:  chars of the response.
+     * @param length: number of chars of this chunk.
+     * @return false to stop reading the response.
+     */
+    protected boolean onTextChunk(@NonNull char[] chunk, int length) {
+        return true;
     }
 
     /**
-     * this class is used to post multipart data forms
+     * Receives the chunks of a response requested with {@link #getByteStream(String, RequestHeader)}.
+     * This method will be executed in a background thread.
+     * <p>
+     * The next chunk is only read once this method returns, a slow consumer slows the download down
+     * instead of piling chunks up in memory. The chunk array is reused, copy what has to be kept.
+     *
+     * @param chunk:  bytes of the response.
+     * @param length: number of bytes of this chunk.
+     * @return false to stop reading the response.
+     */
+    protected boolean onChunk(@NonNull byte[] chunk, int length) {
+        return true;
+    }
+
+    /**
+     * this class is used to post multipart data forms.
+     * <p>
+     * The parts are collected first, so the exact size of the body is known before sending it and the platform
+     * streams it instead of buffering it in memory, files are sent through one reused buffer.
      */
     private final class HttpPostMultiPart {
         private static final String LINE = "\r\n";
+        private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+        private static final int CHUNK_LENGTH = 64 * 1024;
         private final String boundary;
         private final HttpURLConnection httpConn;
         private final String charset;
-        private final OutputStream outputStream;
-        private final PrintWriter writer;
+        private final ArrayList<Part> parts = new ArrayList<>();
         private final int responseDataType;
         private final Response response;
         private final String storageDirectoryIfResponseIsFile;
@@ -1070,7 +2323,10 @@ public class HttpConnection {
             boundary = UUID.randomUUID().toString();
             URL url = new URL(requestURL);
             httpConn = (HttpURLConnection) url.openConnection();
+            if (!track(httpConn)) throw new IOException("Request cancelled");
             response = new Response(httpConn, "");
+            httpConn.setConnectTimeout(connectionTimeout);
+            httpConn.setReadTimeout(readTimeout);
             httpConn.setUseCaches(false);
             httpConn.setDoOutput(true);    // indicates POST method
             httpConn.setDoInput(true);
@@ -1083,8 +2339,6 @@ public class HttpConnection {
                     httpConn.setRequestProperty(key, value);
                 }
             }
-            outputStream = httpConn.getOutputStream();
-            writer = new PrintWriter(new OutputStreamWriter(outputStream, charset), true);
             this.responseDataType = responseDataType;
             this.storageDirectoryIfResponseIsFile = storageDirectoryIfResponseIsFile;
         }
@@ -1095,17 +2349,16 @@ public class HttpConnection {
          * @param name  field name
          * @param value field value
          */
-        public void addFormField(String name, String value) {
-            writer.append("--" + boundary).append(LINE);
-            writer.append("Content-Disposition: form-data; name=\"" + name + "\"").append(LINE);
-            writer.append("Content-Type: text/plain; charset=" + charset).append(LINE);
-            writer.append(LINE);
-            writer.append(value).append(LINE);
-            writer.flush();
+        public void addFormField(String name, String value) throws IOException {
+            String header = "--" + boundary + LINE
+                    + "Content-Disposition: form-data; name=\"" + name + "\"" + LINE
+                    + "Content-Type: text/plain; charset=" + charset + LINE
+                    + LINE;
+            parts.add(new Part(header.getBytes(charset), value.getBytes(charset), null));
         }
 
         /**
-         * Adds a upload file section to the request
+         * Adds a upload file section to the request, the file is read when the request is sent.
          *
          * @param fieldName
          * @param uploadFile
@@ -1114,40 +2367,122 @@ public class HttpConnection {
         public final void addFilePart(String fieldName, File uploadFile)
                 throws IOException {
             String fileName = uploadFile.getName();
-            writer.append("--" + boundary).append(LINE);
-            writer.append("Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fileName + "\"").append(LINE);
-            writer.append("Content-Type: " + URLConnection.guessContentTypeFromName(fileName)).append(LINE);
-            writer.append("Content-Transfer-Encoding: binary").append(LINE);
-            writer.append(LINE);
-            writer.flush();
-
-            FileInputStream inputStream = new FileInputStream(uploadFile);
-            byte[] buffer = new byte[4096];
-            int bytesRead = -1;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+            String header = "--" + boundary + LINE
+                    + "Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fileName + "\"" + LINE
+                    + "Content-Type: " + URLConnection.guessContentTypeFromName(fileName) + LINE
+                    + "Content-Transfer-Encoding: binary" + LINE
+                    + LINE;
+            parts.add(new Part(header.getBytes(charset), null, uploadFile));
+        }
+
+        /**
+         * @return the exact size of the body in bytes, or -1 if a file size can't be known before reading it.
+         */
+        private long contentLength(@NonNull byte[] line, @NonNull byte[] closing) {
+            long length = closing.length;
+            for (int i = 0; i < parts.size(); i++) {
+                Part part = parts.get(i);
+                if (part.file != null && !part.file.isFile()) return -1;
+                length += part.header.length + part.length + line.length;
+            }
+            return length;
+        }
+
+        /**
+         * Writes the parts one after the other.
+         */
+        private void writeBody(@NonNull OutputStream outputStream, @NonNull byte[] line, @NonNull byte[] closing,
+                               long uploadSize)
+                throws IOException {
+            byte[] buffer = BufferPool.getBytes(UPLOAD_BUFFER_SIZE);
+            long numberOfSentBytes = 0;
+            /**
+             *This var is declared to minimize the number of main thread calls when,
+             * the upload size is so big we might have the same progress many times.
+             */
+            short lastProgress = -1;
+
+            for (int i = 0; i < parts.size(); i++) {
+                Part part = parts.get(i);
+                outputStream.write(part.header);
+                numberOfSentBytes += part.header.length;
+
+                if (part.file != null) {
+                    FileInputStream inputStream = new FileInputStream(part.file);
+                    try {
+                        /**
+                         * a fixed length body must contain the announced number of bytes, even if the file changed
+                         */
+                        long remaining = (uploadSize < 0) ? Long.MAX_VALUE : part.length;
+                        int bytesRead;
+                        while (remaining > 0
+                                && (bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                            outputStream.write(buffer, 0, bytesRead);
+                            remaining -= bytesRead;
+                            numberOfSentBytes += bytesRead;
+
+                            /**
+                             * a chunked body has no known size, only the sent bytes are shown
+                             */
+                            short percentage = (uploadSize < 0) ? -1 : percentageOf(numberOfSentBytes, uploadSize);
+                            if (percentage < 0) informUserWithUploadProgress(percentage, uploadSize, numberOfSentBytes);
+                            else if (percentage > lastProgress) {
+                                lastProgress = percentage;
+                                informUserWithUploadProgress(percentage, uploadSize, numberOfSentBytes);
+                            }
+                        }
+                        if (uploadSize >= 0 && remaining > 0)
+                            throw new IOException(part.file.getName() + " changed while being uploaded !");
+                    } finally {
+                        inputStream.close();
+                    }
+                } else {
+                    outputStream.write(part.value);
+                    numberOfSentBytes += part.length;
+                }
+                outputStream.write(line);
+                numberOfSentBytes += line.length;
             }
+            outputStream.write(closing);
+            numberOfSentBytes += closing.length;
             outputStream.flush();
-            inputStream.close();
-            writer.append(LINE);
-            writer.flush();
+            BufferPool.recycle(buffer);
+
+            if (lastProgress < 100) informUserWithUploadProgress((short) 100, uploadSize, numberOfSentBytes);
         }
 
         /**
-         * Completes the request and receives response from the server.
+         * Sends the request and receives response from the server.
          *
          * @return String as response in case the server returned
          * status OK, otherwise an exception is thrown.
          * @throws IOException
          */
         public final void finish() throws IOException {
+            byte[] line = LINE.getBytes(charset);
+            byte[] closing = ("--" + boundary + "--" + LINE).getBytes(charset);
+            long uploadSize = contentLength(line, closing);
 
-            writer.flush();
-            writer.append("--" + boundary + "--").append(LINE);
-            writer.close();
+            /**
+             * without a streaming mode the platform keeps the whole body in memory before sending it
+             */
+            if (uploadSize >= 0 && uploadSize <= Integer.MAX_VALUE)
+                httpConn.setFixedLengthStreamingMode((int) uploadSize);
+            else if (uploadSize >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                httpConn.setFixedLengthStreamingMode(uploadSize);
+            else
+                httpConn.setChunkedStreamingMode(CHUNK_LENGTH);
+
+            OutputStream outputStream = new BufferedOutputStream(httpConn.getOutputStream(), 8192);
+            mark(RequestTimings.PHASE_CONNECTED);
+            try {
+                writeBody(outputStream, line, closing, uploadSize);
+            } finally {
+                outputStream.close();
+            }
 
             // checks server's status code first
-            int status = httpConn.getResponseCode();
+            int status = awaitResponse(httpConn);
             if (status == successfulResponseCode) {
                 /**
                  * Notify User with new occurring event
@@ -1160,8 +2495,7 @@ public class HttpConnection {
                 informUserWithNewFlag(FLAG_DATA_SENT, response.setResult("Data sent !"));
 
                 if (responseDataType == DATATYPE_TEXT) {
-                    ByteArrayOutputStream result = new ByteArrayOutputStream();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(httpConn.getErrorStream(), Charset.forName("UTF-8")));
+                    Reader reader = new InputStreamReader(httpConn.getInputStream(), Charset.forName("UTF-8"));
 
                     response.setResult(buildTextFromBuffer(reader, response.getContentLength()));
 
@@ -1173,33 +2507,11 @@ public class HttpConnection {
                             .randomNameWithExtension("arrowbow_download", contentType);
 
 
-                    String path = new FileSaver() {
-                        /**
-                         *This var is declared to minimize the number of main thread calls when,
-                         * the download size is so big we might have the same progress many times.
-                         */
-                        short lastProgress = 0;
-
-                        @Override
-                        public void showProgress(long numberOfReadBytes) {
-                            short percentage = 0;
-
-                            if (downloadSize >= numberOfReadBytes)
-                                percentage = Short.valueOf(
-                                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
-                            else percentage = 100;
-
-                            if (percentage > lastProgress) {
-                                lastProgress = percentage;
-                                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
-                            }
-
-                        }
-                    }.save(storageDirectoryIfResponseIsFile, fileName, httpConn.getInputStream());
+                    String path = new DownloadSaver(downloadSize).save(storageDirectoryIfResponseIsFile, fileName, httpConn.getInputStream());
 
                     response.setResult(path);
                 }
-                httpConn.disconnect();
+                releaseConnection(httpConn, null);
                 /**
                  * Notify User with new occurring event
                  */
@@ -1207,7 +2519,7 @@ public class HttpConnection {
                 informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response);
             } else {
                 //case of error
-                BufferedReader reader = new BufferedReader(new InputStreamReader(httpConn.getErrorStream(), Charset.forName("UTF-8")));
+                Reader reader = new InputStreamReader(httpConn.getErrorStream(), Charset.forName("UTF-8"));
                 /**
                  * Notify User with new occurring event
                  */
@@ -1217,4 +2529,51 @@ public class HttpConnection {
         }
     }
 
+    /**
+     * Saves a downloaded file and reports its progress, only when the percentage changes.
+     */
+    private final class DownloadSaver extends FileSaver {
+        private final long downloadSize;
+        /**
+         *This var is declared to minimize the number of main thread calls when,
+         * the download size is so big we might have the same progress many times.
+         */
+        private short lastProgress = 0;
+
+        private DownloadSaver(long downloadSize) {
+            this.downloadSize = downloadSize;
+        }
+
+        @Override
+        public void showProgress(long numberOfReadBytes) {
+            short percentage = percentageOf(numberOfReadBytes, downloadSize);
+            if (percentage > lastProgress) {
+                lastProgress = percentage;
+                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
+            }
+        }
+    }
+
+    /**
+     * A form field or a file of a multipart body, the file is read only when the body is sent.
+     */
+    private static final class Part {
+        private final byte[] header;
+        @Nullable
+        private final byte[] value;
+        @Nullable
+        private final File file;
+        /**
+         * size of the value or of the file, read when the part is added.
+         */
+        private final long length;
+
+        private Part(@NonNull byte[] header, @Nullable byte[] value, @Nullable File file) {
+            this.header = header;
+            this.value = value;
+            this.file = file;
+            this.length = (file != null) ? file.length() : value.length;
+        }
+    }
+
 }
\ No newline at end of file
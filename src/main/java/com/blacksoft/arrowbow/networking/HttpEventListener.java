@@ -0,0 +1,45 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The goal of this class is to follow requests through the phases recorded by {@link RequestTimings},
+ * to send them to an analytics tool or to log slow requests for example.
+ * <p>
+ * Override only the phases you need. Every method is called in the thread reaching the phase:
+ * the thread starting the request for {@link #onQueued(HttpConnection, RequestTimings)}, app main thread for
+ * {@link #onCallbackDelivered(HttpConnection, RequestTimings)} and a background thread for the others,
+ * so they have to be quick.
+ * <p>
+ * A listener is given to one request with {@link HttpConnection#setEventListener(HttpEventListener)}
+ * or to all of them with {@link HttpConnection#setDefaultEventListener(HttpEventListener)}.
+ */
+public abstract class HttpEventListener {
+
+    public void onQueued(@NonNull HttpConnection connection, @NonNull RequestTimings timings) {
+    }
+
+    public void onStarted(@NonNull HttpConnection connection, @NonNull RequestTimings timings) {
+    }
+
+    public void onConnected(@NonNull HttpConnection connection, @NonNull RequestTimings timings) {
+    }
+
+    public void onFirstByte(@NonNull HttpConnection connection, @NonNull RequestTimings timings) {
+    }
+
+    public void onHeadersParsed(@NonNull HttpConnection connection, @NonNull RequestTimings timings) {
+    }
+
+    /**
+     * Called when the request ended, successfully or not.
+     */
+    public void onBodyComplete(@NonNull HttpConnection connection, @NonNull RequestTimings timings) {
+    }
+
+    /**
+     * Called after the final event of the request was given to doInUiThread, all the phases are known.
+     */
+    public void onCallbackDelivered(@NonNull HttpConnection connection, @NonNull RequestTimings timings) {
+    }
+}
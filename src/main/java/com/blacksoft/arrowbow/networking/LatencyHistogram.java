@@ -0,0 +1,133 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The goal of this class is to summarize many durations in a fixed amount of memory, to read their
+ * percentiles (p50, p99 ...) without keeping every one of them.
+ * <p>
+ * Durations under 16 ms are counted exactly, longer ones fall in buckets 1/8 of a power of two wide,
+ * so a percentile is at most 12.5% above the real value.
+ */
+public final class LatencyHistogram {
+
+    private static final int EXACT_BUCKETS = 16;
+    private static final int SUB_BUCKETS = 8;
+    /**
+     * 16 exact buckets, then 8 buckets for each power of two from 2^4 to 2^62.
+     */
+    private static final int BUCKETS_COUNT = EXACT_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS_COUNT];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Adds a duration.
+     *
+     * @param millis: the duration in millis, negative durations are ignored.
+     */
+    public synchronized void record(long millis) {
+        if (millis < 0) return;
+        counts[bucketOf(millis)]++;
+        count++;
+        sum += millis;
+        if (millis < min) min = millis;
+        if (millis > max) max = millis;
+    }
+
+    /**
+     * @param percentile: between 0 and 100, 99 for the p99.
+     * @return the duration in millis under which this percentage of the recorded durations falls,
+     * 0 if nothing was recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count);
+        if (rank == 0) return min;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.max(min, Math.min(max, upperBoundOf(i)));
+        }
+        return max;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the shortest recorded duration, 0 if nothing was recorded.
+     */
+    public synchronized long getMin() {
+        return (count == 0) ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return (count == 0) ? 0 : sum / (double) count;
+    }
+
+    /**
+     * Forgets all the recorded durations.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS_COUNT; i++) counts[i] = 0;
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * @return a copy that doesn't change anymore.
+     */
+    @NonNull
+    public synchronized LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, BUCKETS_COUNT);
+        copy.count = count;
+        copy.sum = sum;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    private static int bucketOf(long millis) {
+        if (millis < EXACT_BUCKETS) return (int) millis;
+        int power = 63 - Long.numberOfLeadingZeros(millis);
+        int subBucket = (int) (millis >>> (power - 3)) & (SUB_BUCKETS - 1);
+        return EXACT_BUCKETS + (power - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the longest duration falling in this bucket.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < EXACT_BUCKETS) return bucket;
+        int power = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (power - 3);
+        return (1L << power) + (subBucket + 1) * width - 1;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "\ncount: " + getCount()
+                + "\np50: " + getPercentile(50) + " ms"
+                + "\np90: " + getPercentile(90) + " ms"
+                + "\np99: " + getPercentile(99) + " ms"
+                + "\nmax: " + getMax() + " ms";
+    }
+}
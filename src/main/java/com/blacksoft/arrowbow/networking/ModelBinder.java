@@ -0,0 +1,438 @@
+package com.blacksoft.arrowbow.networking;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The goal of this class is to turn a JSON response into model objects while it's being read,
+ * without building its String or a JSONObject first.
+ * <p>
+ * A model class needs a constructor without arguments, every non static and non transient field
+ * (inherited ones included) is filled from the JSON member with the same name, or the name given by
+ * {@link Name}. Unknown members are skipped, missing ones leave the field untouched.
+ * <p>
+ * Supported field types: primitives and their wrappers, String, enums, arrays, Lists, Sets,
+ * Maps with String keys, Object (read as Maps, Lists, Strings, Longs, Doubles and Booleans) and other
+ * model classes. Other types can be read by an {@link Adapter} given to {@link #register(Class, Adapter)}.
+ * <p>
+ * The fields of a class are looked up once, {@link #register(Class)} does it ahead of the first response.
+ */
+public final class ModelBinder {
+
+    /**
+     * Name of the JSON member filling a field, when it differs from the field name.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface Name {
+        String value();
+    }
+
+    /**
+     * Reads a type the binder doesn't support, a date written as a String for example.
+     */
+    public interface Adapter<T> {
+        @Nullable
+        T read(@NonNull JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Fields of each model class, looked up once.
+     */
+    private static final ConcurrentHashMap<Class<?>, ClassBinding> bindings = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, Adapter<?>> adapters = new ConcurrentHashMap<>();
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private ModelBinder() {
+    }
+
+    /**
+     * Looks up the fields of a model class now instead of when its first response arrives.
+     *
+     * @param modelClass: the model class.
+     */
+    public static void register(@NonNull Class<?> modelClass) {
+        try {
+            bindingOf(modelClass);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads every value of a type with an adapter.
+     *
+     * @param type:    the type read by the adapter.
+     * @param adapter: the adapter.
+     */
+    public static <T> void register(@NonNull Class<T> type, @NonNull Adapter<T> adapter) {
+        adapters.put(type, adapter);
+    }
+
+    /**
+     * Reads a JSON document into an object.
+     *
+     * @param reader:     the JSON text, it isn't closed.
+     * @param modelClass: class of the object.
+     * @return the object, or null if the document is null.
+     * @throws IOException if the document isn't valid JSON or doesn't match the class.
+     */
+    @Nullable
+    public static <T> T bind(@NonNull Reader reader, @NonNull Class<T> modelClass) throws IOException {
+        return modelClass.cast(bind(reader, (Type) modelClass));
+    }
+
+    /**
+     * Reads a JSON array into a list.
+     *
+     * @param reader:    the JSON text, it isn't closed.
+     * @param itemClass: class of the array items.
+     * @return the list, or null if the document is null.
+     * @throws IOException if the document isn't valid JSON or doesn't match the class.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public static <T> ArrayList<T> bindList(@NonNull Reader reader, @NonNull Class<T> itemClass) throws IOException {
+        return (ArrayList<T>) bind(reader, new ListType(itemClass));
+    }
+
+    @Nullable
+    private static Object bind(@NonNull Reader reader, @NonNull Type type) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        try {
+            return read(jsonReader, type);
+        } catch (IllegalStateException | NumberFormatException e) {
+            /**
+             * a value of the wrong type, a String where a number was expected for example.
+             */
+            throw new IOException("The response doesn't match " + type + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the next value of the document.
+     */
+    @Nullable
+    private static Object read(@NonNull JsonReader reader, @NonNull Type type) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        Class<?> raw = rawTypeOf(type);
+        Adapter<?> adapter = adapters.get(raw);
+        if (adapter != null) return adapter.read(reader);
+
+        if (raw == String.class)
+            return (token == JsonToken.BOOLEAN) ? String.valueOf(reader.nextBoolean()) : reader.nextString();
+        if (raw == int.class || raw == Integer.class) return reader.nextInt();
+        if (raw == long.class || raw == Long.class) return reader.nextLong();
+        if (raw == double.class || raw == Double.class) return reader.nextDouble();
+        if (raw == boolean.class || raw == Boolean.class) return reader.nextBoolean();
+        if (raw == float.class || raw == Float.class) return (float) reader.nextDouble();
+        if (raw == short.class || raw == Short.class) return (short) reader.nextInt();
+        if (raw == byte.class || raw == Byte.class) return (byte) reader.nextInt();
+        if (raw == char.class || raw == Character.class) {
+            String value = reader.nextString();
+            return value.isEmpty() ? null : value.charAt(0);
+        }
+        if (raw.isEnum()) return enumOf(raw, reader.nextString());
+        if (raw == Object.class) return readAny(reader);
+
+        if (raw.isArray()) {
+            Type componentType = (type instanceof GenericArrayType)
+                    ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+            ArrayList<Object> items = new ArrayList<>();
+            readItems(reader, componentType, items);
+            Object array = Array.newInstance(rawTypeOf(componentType), items.size());
+            for (int i = 0; i < items.size(); i++) Array.set(array, i, items.get(i));
+            return array;
+        }
+
+        if (Collection.class.isAssignableFrom(raw)) {
+            @SuppressWarnings("unchecked")
+            Collection<Object> items = (Collection<Object>) newCollection(raw);
+            readItems(reader, typeArgument(type, 0), items);
+            return items;
+        }
+
+        if (Map.class.isAssignableFrom(raw)) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) newMap(raw);
+            Type valueType = typeArgument(type, 1);
+            reader.beginObject();
+            while (reader.hasNext()) map.put(reader.nextName(), read(reader, valueType));
+            reader.endObject();
+            return map;
+        }
+
+        return bindingOf(raw).read(reader);
+    }
+
+    private static void readItems(@NonNull JsonReader reader, @NonNull Type itemType,
+                                  @NonNull Collection<Object> items) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) items.add(read(reader, itemType));
+        reader.endArray();
+    }
+
+    /**
+     * Reads a value of unknown type.
+     */
+    @Nullable
+    private static Object readAny(@NonNull JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) map.put(reader.nextName(), readAny(reader));
+                reader.endObject();
+                return map;
+            case BEGIN_ARRAY:
+                ArrayList<Object> list = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) list.add(readAny(reader));
+                reader.endArray();
+                return list;
+            case NUMBER:
+                String number = reader.nextString();
+                if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        /**
+                         * too big for a long
+                         */
+                    }
+                }
+                return Double.parseDouble(number);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    @Nullable
+    private static Object enumOf(@NonNull Class<?> enumClass, @NonNull String name) {
+        for (Object constant : enumClass.getEnumConstants())
+            if (((Enum<?>) constant).name().equals(name)) return constant;
+        return null;
+    }
+
+    @NonNull
+    private static Collection<?> newCollection(@NonNull Class<?> raw) throws IOException {
+        if (raw.isAssignableFrom(ArrayList.class)) return new ArrayList<>();
+        if (raw.isAssignableFrom(LinkedHashSet.class)) return new LinkedHashSet<>();
+        return (Collection<?>) newInstance(raw);
+    }
+
+    @NonNull
+    private static Map<?, ?> newMap(@NonNull Class<?> raw) throws IOException {
+        if (raw.isAssignableFrom(LinkedHashMap.class)) return new LinkedHashMap<>();
+        return (Map<?, ?>) newInstance(raw);
+    }
+
+    @NonNull
+    private static Object newInstance(@NonNull Class<?> raw) throws IOException {
+        try {
+            Constructor<?> constructor = raw.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException
+                | InvocationTargetException e) {
+            throw new IOException("Can't create an instance of " + raw.getName(), e);
+        }
+    }
+
+    @NonNull
+    private static Class<?> rawTypeOf(@NonNull Type type) {
+        if (type instanceof Class) return (Class<?>) type;
+        if (type instanceof ParameterizedType) return rawTypeOf(((ParameterizedType) type).getRawType());
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawTypeOf(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType) return rawTypeOf(((WildcardType) type).getUpperBounds()[0]);
+        /**
+         * type variables of generic models
+         */
+        return Object.class;
+    }
+
+    /**
+     * @return the type argument at this position, List&lt;User&gt; gives User, or Object if there is none.
+     */
+    @NonNull
+    private static Type typeArgument(@NonNull Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) return arguments[index];
+        }
+        return Object.class;
+    }
+
+    @NonNull
+    private static ClassBinding bindingOf(@NonNull Class<?> modelClass) throws IOException {
+        ClassBinding binding = bindings.get(modelClass);
+        if (binding == null) {
+            binding = new ClassBinding(modelClass);
+            ClassBinding existing = bindings.putIfAbsent(modelClass, binding);
+            if (existing != null) binding = existing;
+        }
+        return binding;
+    }
+
+    /**
+     * The constructor and fields of a model class.
+     */
+    private static final class ClassBinding {
+        private final Constructor<?> constructor;
+        private final HashMap<String, FieldBinding> fields = new HashMap<>();
+
+        private ClassBinding(@NonNull Class<?> modelClass) throws IOException {
+            if (modelClass.isInterface() || Modifier.isAbstract(modelClass.getModifiers()))
+                throw new IOException(modelClass.getName() + " can't be instantiated");
+            try {
+                constructor = modelClass.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IOException(modelClass.getName() + " needs a constructor without arguments", e);
+            }
+
+            /**
+             * fields of the subclass hide the ones of its parents
+             */
+            for (Class<?> c = modelClass; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                        continue;
+                    Name name = field.getAnnotation(Name.class);
+                    String key = (name != null) ? name.value() : field.getName();
+                    if (fields.containsKey(key)) continue;
+                    field.setAccessible(true);
+                    fields.put(key, new FieldBinding(field));
+                }
+            }
+        }
+
+        @NonNull
+        private Object read(@NonNull JsonReader reader) throws IOException {
+            Object model;
+            try {
+                model = constructor.newInstance();
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new IOException("Can't create an instance of " + constructor.getDeclaringClass().getName(), e);
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                FieldBinding field = fields.get(reader.nextName());
+                if (field == null) reader.skipValue();
+                else field.read(reader, model);
+            }
+            reader.endObject();
+            return model;
+        }
+    }
+
+    /**
+     * A field of a model class, primitives are set without being boxed.
+     */
+    private static final class FieldBinding {
+        private final Field field;
+        private final Type type;
+        private final Class<?> raw;
+
+        private FieldBinding(@NonNull Field field) {
+            this.field = field;
+            this.type = field.getGenericType();
+            this.raw = field.getType();
+        }
+
+        private void read(@NonNull JsonReader reader, @NonNull Object model) throws IOException {
+            try {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    /**
+                     * primitives keep their default value
+                     */
+                    if (!raw.isPrimitive()) field.set(model, null);
+                } else if (raw == int.class) field.setInt(model, reader.nextInt());
+                else if (raw == long.class) field.setLong(model, reader.nextLong());
+                else if (raw == double.class) field.setDouble(model, reader.nextDouble());
+                else if (raw == boolean.class) field.setBoolean(model, reader.nextBoolean());
+                else if (raw == float.class) field.setFloat(model, (float) reader.nextDouble());
+                else field.set(model, ModelBinder.read(reader, type));
+            } catch (IllegalAccessException e) {
+                throw new IOException("Can't set " + field.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * The ArrayList&lt;T&gt; type of {@link #bindList(Reader, Class)}.
+     */
+    private static final class ListType implements ParameterizedType {
+        private final Class<?> itemClass;
+
+        private ListType(@NonNull Class<?> itemClass) {
+            this.itemClass = itemClass;
+        }
+
+        @NonNull
+        @Override
+        public Type[] getActualTypeArguments() {
+            return new Type[]{itemClass};
+        }
+
+        @NonNull
+        @Override
+        public Type getRawType() {
+            return ArrayList.class;
+        }
+
+        @Nullable
+        @Override
+        public Type getOwnerType() {
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "ArrayList<" + itemClass.getName() + ">";
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.blacksoft.arrowbow.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+
+/**
+ * The goal of this class is to keep an unfinished file download on disk, so it can be resumed later
+ * from where it stopped instead of starting again from zero.
+ * <p>
+ * The bytes are written to a partial file next to a sidecar file holding the validator (ETag or Last-Modified)
+ * of the response, a new attempt asks the server for the missing bytes only ({@code Range: bytes=N-}),
+ * guarded by {@code If-Range} so a changed file is downloaded again from the start.
+ */
+final class PartialDownload {
+
+    private static final String PART_EXTENSION = ".part";
+    private static final String META_EXTENSION = ".part.meta";
+
+    /**
+     * Sidecar file keys
+     */
+    private static final String KEY_URL = "url";
+    private static final String KEY_VALIDATOR = "validator";
+
+    private static final String RANGE = "Range";
+    private static final String IF_RANGE = "If-Range";
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private final String url;
+    private final File directory;
+    private final File partFile;
+    private final File metaFile;
+
+    /**
+     * Number of bytes already on disk when the request is sent.
+     */
+    private long offset = 0;
+
+    /**
+     * @param storageDirectory: where the downloaded file is stored.
+     * @param url:              request url.
+     */
+    PartialDownload(@NonNull String storageDirectory, @NonNull String url) {
+        this.url = url;
+        directory = new File(storageDirectory);
+        String name = "arrowbow_partial_" + HttpCache.keyOf(url);
+        partFile = new File(directory, name + PART_EXTENSION);
+        metaFile = new File(directory, name + META_EXTENSION);
+    }
+
+    /**
+     * Asks the server for the missing bytes only, if a previous attempt left some on disk.
+     */
+    void addRangeHeaders(@NonNull HttpURLConnection connection) {
+        offset = 0;
+        if (!partFile.isFile() || partFile.length() == 0) return;
+
+        Properties properties = readMeta();
+        String validator = (properties != null) ? properties.getProperty(KEY_VALIDATOR) : null;
+        if (validator == null || !url.equals(properties.getProperty(KEY_URL))) return;
+
+        offset = partFile.length();
+        connection.setRequestProperty(RANGE, "bytes=" + offset + "-");
+        connection.setRequestProperty(IF_RANGE, validator);
+    }
+
+    /**
+     * @return true if the server sent the missing bytes only.
+     */
+    boolean isResumed(@NonNull HttpURLConnection connection) throws IOException {
+        return offset > 0 && connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+    }
+
+    /**
+     * @return the size of the whole file, or -1 if unknown.
+     */
+    long getTotalLength(@NonNull HttpURLConnection connection) throws IOException {
+        long contentLength = connection.getContentLength();
+        if (!isResumed(connection)) return contentLength;
+
+        /**
+         * Content-Range: bytes 1000-1999/2000
+         */
+        String contentRange = connection.getHeaderField(CONTENT_RANGE);
+        if (contentRange != null && contentRange.contains("/")) {
+            try {
+                return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+            } catch (NumberFormatException e) {
+                // total size is "*"
+            }
+        }
+        return (contentLength < 0) ? -1 : offset + contentLength;
+    }
+
+    /**
+     * Records the validator of the response before its body is written, a full response replaces
+     * the bytes of the previous attempt.
+     *
+     * @return true if the body has to be appended to the partial file.
+     */
+    boolean begin(@NonNull HttpURLConnection connection) throws IOException {
+        boolean resumed = isResumed(connection);
+        if (!resumed) {
+            directory.mkdirs();
+            partFile.delete();
+
+            String validator = connection.getHeaderField(RequestHeader.Field.ETAG);
+            /**
+             * If-Range accepts strong ETags only
+             */
+            if (validator == null || validator.startsWith("W/"))
+                validator = connection.getHeaderField(RequestHeader.Field.LAST_MODIFIED);
+
+            if (validator == null) metaFile.delete();
+            else {
+                Properties properties = new Properties();
+                properties.setProperty(KEY_URL, url);
+                properties.setProperty(KEY_VALIDATOR, validator);
+                writeMeta(properties);
+            }
+        }
+        return resumed;
+    }
+
+    @NonNull
+    File getPartFile() {
+        return partFile;
+    }
+
+    /**
+     * Gives the downloaded file its final name.
+     *
+     * @param fileName: file name with extension.
+     * @return file path or null.
+     */
+    @Nullable
+    String complete(@NonNull String fileName) {
+        File file = new File(directory, fileName);
+        if (!partFile.renameTo(file)) return null;
+        metaFile.delete();
+        return file.getPath();
+    }
+
+    /**
+     * Deletes the bytes of previous attempts.
+     */
+    void discard() {
+        partFile.delete();
+        metaFile.delete();
+    }
+
+    @Nullable
+    private Properties readMeta() {
+        if (!metaFile.isFile()) return null;
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(metaFile);
+            properties.load(inputStream);
+            return properties;
+        } catch (IOException e) {
+            Log.e("Arrowbow_library", "" + e.getMessage());
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void writeMeta(@NonNull Properties properties) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(metaFile);
+            properties.store(outputStream, null);
+        } catch (IOException e) {
+            Log.e("Arrowbow_library", "" + e.getMessage());
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.blacksoft.arrowbow.networking;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.blacksoft.arrowbow.utils.MainThreadDispatcher;
+
+/**
+ * The goal of this class is to deliver the progress of a request to the main thread without flooding it.
+ * <p>
+ * The background thread only records the latest progress, at most one update is posted every interval
+ * (one frame by default), and it always carries the latest recorded values: the intermediate ones are dropped.
+ * Nothing is allocated per update, the same {@link Runnable} is posted again and again to the
+ * {@link MainThreadDispatcher}, an update waiting for its interval is handed to it by a delayed message.
+ */
+final class ProgressDispatcher implements Runnable {
+
+    /**
+     * Duration of a frame at 60 fps.
+     */
+    static final long DEFAULT_INTERVAL_MILLIS = 16;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final HttpConnection connection;
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    /**
+     * latest recorded progress
+     */
+    private short percentage;
+    private long downloadSize;
+    private long numberOfReadBytes;
+
+    /**
+     * Whether an update is waiting in the main thread queue, and whether it's still waiting for its interval.
+     */
+    private boolean posted = false;
+    private boolean delayed = false;
+    private long lastDeliveredAt = 0;
+
+    /**
+     * Hands a delayed update to the {@link MainThreadDispatcher}.
+     */
+    private final Runnable dispatch = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ProgressDispatcher.this) {
+                if (!delayed) return;
+                delayed = false;
+            }
+            MainThreadDispatcher.post(ProgressDispatcher.this);
+        }
+    };
+
+    ProgressDispatcher(@NonNull HttpConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @param intervalMillis: minimum time between two updates, 0 to post every update.
+     */
+    synchronized void setInterval(long intervalMillis) {
+        this.intervalMillis = Math.max(0, intervalMillis);
+    }
+
+    /**
+     * Records a new progress, called from the background thread.
+     */
+    synchronized void update(short percentage, long downloadSize, long numberOfReadBytes) {
+        this.percentage = percentage;
+        this.downloadSize = downloadSize;
+        this.numberOfReadBytes = numberOfReadBytes;
+        if (posted) return;
+
+        posted = true;
+        long deliverAt = lastDeliveredAt + intervalMillis;
+        if (deliverAt <= SystemClock.uptimeMillis()) MainThreadDispatcher.post(this);
+        else {
+            delayed = true;
+            mainHandler.postAtTime(dispatch, deliverAt);
+        }
+    }
+
+    /**
+     * Posts a delayed update right away, so it reaches the main thread before the events posted after it.
+     */
+    synchronized void flush() {
+        if (!delayed) return;
+        delayed = false;
+        mainHandler.removeCallbacks(dispatch);
+        MainThreadDispatcher.post(this);
+    }
+
+    @Override
+    public void run() {
+        short percentage;
+        long downloadSize;
+        long numberOfReadBytes;
+        synchronized (this) {
+            if (!posted) return;
+            posted = false;
+            lastDeliveredAt = SystemClock.uptimeMillis();
+            percentage = this.percentage;
+            downloadSize = this.downloadSize;
+            numberOfReadBytes = this.numberOfReadBytes;
+        }
+        if (!connection.isCancelled())
+            connection.showDownloadProgress(percentage, downloadSize, numberOfReadBytes);
+    }
+}
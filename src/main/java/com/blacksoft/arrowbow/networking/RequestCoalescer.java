@@ -0,0 +1,157 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.blacksoft.arrowbow.items.Field;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The goal of this class is to share one network transfer between identical GET requests running at the same time.
+ * <p>
+ * The first request of a kind becomes the leader and performs the transfer, the identical requests arriving
+ * before it finishes become its followers, they don't touch the network and receive the same {@link Response}
+ * as the leader.
+ */
+final class RequestCoalescer {
+
+    /**
+     * Requests in flight, keyed by {@link #keyOf(String, String, RequestHeader, int, String)}.
+     */
+    private static final HashMap<String, Group> groups = new HashMap<>();
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private RequestCoalescer() {
+    }
+
+    /**
+     * Builds the key of a request, two requests with the same key download the same thing to the same place.
+     *
+     * @param method:           connection method.
+     * @param url:              request url.
+     * @param header:           request header fields.
+     * @param dataType:         one of {@link HttpConnection} DATATYPE_* values.
+     * @param storageDirectory: where the downloaded file is stored.
+     */
+    @NonNull
+    static String keyOf(@NonNull String method, @NonNull String url, @Nullable RequestHeader header,
+                        int dataType, @Nullable String storageDirectory) {
+        StringBuilder key = new StringBuilder(method).append(' ').append(url)
+                .append('\n').append(dataType)
+                .append('\n').append(storageDirectory);
+
+        if (header != null && header.getProperties() != null) {
+            ArrayList<String> fields = new ArrayList<>();
+            for (Field field : header.getProperties()) {
+                if (field != null) fields.add(field.getName() + ": " + field.getValue());
+            }
+            /**
+             * the same fields given in another order make the same request
+             */
+            Collections.sort(fields);
+            for (String field : fields) key.append('\n').append(field);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Registers a request.
+     *
+     * @param key:        request key.
+     * @param connection: the request.
+     * @return true if an identical request is already in flight, the connection is then one of its followers
+     * and mustn't be performed.
+     */
+    static synchronized boolean join(@NonNull String key, @NonNull HttpConnection connection) {
+        Group group = groups.get(key);
+        if (group == null) {
+            groups.put(key, new Group(connection));
+            return false;
+        }
+        group.followers.add(connection);
+        return true;
+    }
+
+    /**
+     * @return the followers of a leader.
+     */
+    @Nullable
+    static synchronized List<HttpConnection> followersOf(@NonNull String key, @NonNull HttpConnection leader) {
+        Group group = groups.get(key);
+        if (group == null || group.leader != leader || group.followers.isEmpty()) return null;
+        return new ArrayList<>(group.followers);
+    }
+
+    /**
+     * Unregisters a request when its last event is about to be delivered, the requests arriving after that
+     * will perform a new transfer.
+     *
+     * @return the followers of the leader, or null if it's already finished.
+     */
+    @Nullable
+    static synchronized List<HttpConnection> finish(@NonNull String key, @NonNull HttpConnection leader) {
+        Group group = groups.get(key);
+        if (group == null || group.leader != leader) return null;
+        groups.remove(key);
+        return group.followers;
+    }
+
+    /**
+     * Unregisters a cancelled follower, the transfer of its leader doesn't wait for it anymore
+     * and is stopped if the leader was cancelled too and nobody else waits for it.
+     *
+     * @return true if the connection was a follower of this key.
+     */
+    static boolean leave(@NonNull String key, @NonNull HttpConnection follower) {
+        HttpConnection abandonedLeader;
+        synchronized (RequestCoalescer.class) {
+            Group group = groups.get(key);
+            if (group == null || !group.followers.remove(follower)) return false;
+            if (!group.leader.isCancelled() || hasLiveFollowers(group)) return true;
+            groups.remove(key);
+            abandonedLeader = group.leader;
+        }
+        abandonedLeader.abortTransfer();
+        return true;
+    }
+
+    /**
+     * Unregisters a cancelled leader, unless other requests are still waiting for its transfer.
+     *
+     * @return true if the leader can stop its transfer.
+     */
+    static synchronized boolean abandon(@NonNull String key, @NonNull HttpConnection leader) {
+        Group group = groups.get(key);
+        if (group == null || group.leader != leader) return true;
+        if (hasLiveFollowers(group)) return false;
+        groups.remove(key);
+        return true;
+    }
+
+    /**
+     * @return true if a follower that isn't cancelled waits for the transfer.
+     */
+    private static boolean hasLiveFollowers(@NonNull Group group) {
+        for (int i = 0; i < group.followers.size(); i++)
+            if (!group.followers.get(i).isCancelled()) return true;
+        return false;
+    }
+
+    /**
+     * A leader request and its followers.
+     */
+    private static final class Group {
+        private final HttpConnection leader;
+        private final ArrayList<HttpConnection> followers = new ArrayList<>();
+
+        private Group(@NonNull HttpConnection leader) {
+            this.leader = leader;
+        }
+    }
+}
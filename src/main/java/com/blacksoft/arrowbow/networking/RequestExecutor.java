@@ -0,0 +1,759 @@
+package com.blacksoft.arrowbow.networking;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The goal of this class is to run all {@link HttpConnection} requests on one shared pool of threads,
+ * instead of starting a new thread for every call.
+ * <p>
+ * At most {@link #getMaximumPoolSize()} requests run at the same time, the others wait in one of three lanes
+ * (highest, normal, lowest) mapped from the {@link HttpConnection} PRIORITY_* values, up to
+ * {@link #getQueueCapacity()} waiting requests.
+ * <p>
+ * Higher lanes are always served first, a request waiting for more than {@link #getAgingMillis()}
+ * is moved to the lane above so background requests never starve.
+ * <p>
+ * At most {@link #getMaxRequestsPerHost()} requests to the same host run at the same time, inside a lane the hosts
+ * take turns, so a burst of requests to one host can't delay the requests to the others.
+ * The waiting, running and completed requests of every busy host can be read from {@link #getHostStats(String)},
+ * a host is forgotten once it has no more waiting or running requests.
+ * <p>
+ * It can be configured once from your Application class using {@link #configure(int, int, int)}.
+ */
+public final class RequestExecutor {
+
+    /**
+     * Default pool configuration
+     */
+    public static final int DEFAULT_CORE_POOL_SIZE = 4;
+    public static final int DEFAULT_MAXIMUM_POOL_SIZE = 8;
+    public static final int DEFAULT_QUEUE_CAPACITY = 128;
+    public static final long DEFAULT_AGING_MILLIS = 2000;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /**
+     * Priority lanes, the lower the index the sooner the request is performed.
+     */
+    public static final int LANE_HIGHEST = 0;
+    public static final int LANE_NORMAL = 1;
+    public static final int LANE_LOWEST = 2;
+    private static final int LANES_COUNT = 3;
+
+    /**
+     * Time an idle thread (above the core size) stays alive waiting for work.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static RequestExecutor instance;
+
+    /**
+     * Holds the delayed requests till they are due, shared by all executors.
+     */
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private final ThreadPoolExecutor executor;
+    private final int maximumPoolSize;
+    private final int queueCapacity;
+    private volatile long agingMillis = DEFAULT_AGING_MILLIS;
+    private volatile int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    /**
+     * Waiting requests, one lane per priority, all guarded by this object's lock.
+     */
+    private final Lane[] lanes;
+    private int queuedCount = 0;
+    private int runningCount = 0;
+    private int scheduledCount = 0;
+    /**
+     * Whether this executor was replaced by {@link #configure(int, int, int)}, its pool is shut down
+     * once it has no more waiting, scheduled or running requests.
+     */
+    private boolean retired = false;
+
+    /**
+     * Requests of every host having waiting or running requests, guarded by this object's lock.
+     */
+    private final HashMap<String, HostStats> hosts = new HashMap<>();
+
+    /**
+     * private constructor, use {@link #getInstance()} instead.
+     */
+    private RequestExecutor(int corePoolSize, int maximumPoolSize, int queueCapacity) {
+        this.maximumPoolSize = maximumPoolSize;
+        this.queueCapacity = queueCapacity;
+        lanes = new Lane[LANES_COUNT];
+        for (int i = 0; i < LANES_COUNT; i++) lanes[i] = new Lane();
+        /**
+         * the number of running requests is limited by this class, the pool itself is never full.
+         */
+        executor = new ThreadPoolExecutor(corePoolSize, Integer.MAX_VALUE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new RequestThreadFactory());
+    }
+
+    /**
+     * @return the shared executor, created with the default configuration if it wasn't configured before.
+     */
+    @NonNull
+    public static synchronized RequestExecutor getInstance() {
+        if (instance == null)
+            instance = new RequestExecutor(DEFAULT_CORE_POOL_SIZE, DEFAULT_MAXIMUM_POOL_SIZE, DEFAULT_QUEUE_CAPACITY);
+        return instance;
+    }
+
+    /**
+     * Replaces the shared executor with a new one, requests already waiting, scheduled or running in the old
+     * executor are still executed by its threads, which stop once it has nothing left to do.
+     *
+     * @param corePoolSize:    number of threads kept alive even when there is no work to do.
+     * @param maximumPoolSize: maximum number of requests running at the same time.
+     * @param queueCapacity:   maximum number of requests waiting for a thread.
+     */
+    public static synchronized void configure(int corePoolSize, int maximumPoolSize, int queueCapacity) {
+        if (corePoolSize < 1) corePoolSize = 1;
+        if (maximumPoolSize < corePoolSize) maximumPoolSize = corePoolSize;
+        if (queueCapacity < 1) queueCapacity = 1;
+
+        RequestExecutor old = instance;
+        instance = new RequestExecutor(corePoolSize, maximumPoolSize, queueCapacity);
+        if (old != null) {
+            instance.agingMillis = old.agingMillis;
+            instance.maxRequestsPerHost = old.maxRequestsPerHost;
+            synchronized (old) {
+                old.retired = true;
+            }
+            old.shutdownIfIdle();
+        }
+    }
+
+    /**
+     * Stops the threads of a replaced executor once it has nothing left to do.
+     */
+    private void shutdownIfIdle() {
+        synchronized (this) {
+            if (!retired || queuedCount > 0 || runningCount > 0 || scheduledCount > 0) return;
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * @return the current shared executor if this one was replaced, new requests go there.
+     */
+    @Nullable
+    private RequestExecutor successor() {
+        synchronized (this) {
+            if (!retired) return null;
+        }
+        /**
+         * not holding this lock, configure takes the class lock first
+         */
+        return getInstance();
+    }
+
+    /**
+     * @param threadPriority: one of {@link HttpConnection} PRIORITY_* values or any other
+     *                        {@link Process} thread priority.
+     * @return the lane a request with this priority waits in.
+     */
+    public static int laneOf(int threadPriority) {
+        if (threadPriority <= HttpConnection.PRIORITY_HIGHEST) return LANE_HIGHEST;
+        else if (threadPriority >= HttpConnection.PRIORITY_LOWEST) return LANE_LOWEST;
+        else return LANE_NORMAL;
+    }
+
+    /**
+     * Queues a request to be performed as soon as a thread is available.
+     *
+     * @param runnable:       the request to be performed.
+     * @param threadPriority: one of {@link HttpConnection} PRIORITY_* values, it chooses the lane of the request
+     *                        and it's applied to the worker thread while running it.
+     * @return the queued task, or null if the queue is full.
+     */
+    @Nullable
+    public Task execute(@NonNull Runnable runnable, int threadPriority) {
+        return execute(runnable, threadPriority, null);
+    }
+
+    /**
+     * Queues a request to a host, to be performed as soon as a thread is available and the host
+     * has less than {@link #getMaxRequestsPerHost()} running requests.
+     *
+     * @param runnable:       the request to be performed.
+     * @param threadPriority: one of {@link HttpConnection} PRIORITY_* values, it chooses the lane of the request
+     *                        and it's applied to the worker thread while running it.
+     * @param host:           host of the request url, null if it's not known, such requests have no host limit.
+     * @return the queued task, or null if the queue is full.
+     */
+    @Nullable
+    public Task execute(@NonNull Runnable runnable, int threadPriority, @Nullable String host) {
+        RequestExecutor successor = successor();
+        if (successor != null) return successor.execute(runnable, threadPriority, host);
+
+        Task task = new Task(runnable, threadPriority, host);
+        synchronized (this) {
+            if (queuedCount >= queueCapacity) {
+                Log.e("Arrowbow_library", "Request rejected, " + queuedCount
+                        + " requests are already waiting for a thread");
+                return null;
+            }
+            enqueue(task);
+        }
+        dispatch();
+        return task;
+    }
+
+    /**
+     * Adds a task to its lane.
+     * Has to be called while holding this object's lock.
+     */
+    private void enqueue(@NonNull Task task) {
+        task.state = Task.STATE_QUEUED;
+        task.enqueuedAt = System.nanoTime();
+        lanes[task.lane].add(task);
+        queuedCount++;
+
+        if (task.host == null) return;
+        HostStats stats = hosts.get(task.host);
+        if (stats == null) {
+            stats = new HostStats(task.host);
+            hosts.put(task.host, stats);
+        }
+        stats.queued++;
+        if (stats.queued > stats.maxQueued) stats.maxQueued = stats.queued;
+    }
+
+    /**
+     * Queues a request after a delay, no thread is blocked while waiting.
+     * <p>
+     * The request is queued even if the queue is full when it's due, it was already accepted once.
+     *
+     * @param runnable:       the request to be performed.
+     * @param threadPriority: one of {@link HttpConnection} PRIORITY_* values.
+     * @param host:           host of the request url, can be null.
+     * @param delayMillis:    time to wait before queuing the request.
+     * @return the scheduled task.
+     */
+    @NonNull
+    public Task schedule(@NonNull Runnable runnable, int threadPriority, @Nullable String host, long delayMillis) {
+        RequestExecutor successor = successor();
+        if (successor != null) return successor.schedule(runnable, threadPriority, host, delayMillis);
+
+        final Task task = new Task(runnable, threadPriority, host);
+        synchronized (this) {
+            task.state = Task.STATE_SCHEDULED;
+            scheduledCount++;
+        }
+        getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RequestExecutor.this) {
+                    /**
+                     * the task was cancelled while waiting
+                     */
+                    if (task.state != Task.STATE_SCHEDULED) return;
+                    scheduledCount--;
+                    enqueue(task);
+                }
+                dispatch();
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        return task;
+    }
+
+    @NonNull
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Arrowbow-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Starts as many waiting requests as the running limit allows.
+     */
+    private void dispatch() {
+        ArrayList<Task> ready = null;
+        synchronized (this) {
+            while (runningCount < maximumPoolSize) {
+                Task task = pollNext();
+                if (task == null) break;
+                task.state = Task.STATE_RUNNING;
+                runningCount++;
+                HostStats stats = (task.host != null) ? hosts.get(task.host) : null;
+                if (stats != null) {
+                    stats.queued--;
+                    stats.running++;
+                }
+                if (ready == null) ready = new ArrayList<>();
+                ready.add(task);
+            }
+        }
+
+        if (ready != null)
+            for (int i = 0; i < ready.size(); i++) executor.execute(ready.get(i));
+    }
+
+    /**
+     * Removes the next request to be performed, aged requests are promoted before choosing.
+     * Has to be called while holding this object's lock.
+     */
+    private Task pollNext() {
+        long agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+        long now = System.nanoTime();
+
+        for (int lane = LANE_HIGHEST + 1; lane < LANES_COUNT; lane++) {
+            ArrayList<Task> aged = lanes[lane].aged(now - agingNanos);
+            if (aged == null) continue;
+            for (int i = 0; i < aged.size(); i++) {
+                Task task = aged.get(i);
+                lanes[lane].remove(task);
+                /**
+                 * the promoted request waits again in its new lane before being promoted one more time.
+                 */
+                task.lane = lane - 1;
+                task.enqueuedAt = now;
+                lanes[task.lane].add(task);
+            }
+        }
+
+        for (int lane = LANE_HIGHEST; lane < LANES_COUNT; lane++) {
+            Task task = lanes[lane].poll();
+            if (task != null) {
+                queuedCount--;
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if a request to this host can start now.
+     * Has to be called while holding this object's lock.
+     */
+    private boolean canStart(@Nullable String host) {
+        if (host == null) return true;
+        HostStats stats = hosts.get(host);
+        return stats == null || stats.running < maxRequestsPerHost;
+    }
+
+    /**
+     * Called by a task when it finishes, to give its slot to the next waiting request.
+     */
+    private void onTaskFinished(@NonNull Task task) {
+        synchronized (this) {
+            runningCount--;
+            HostStats stats = (task.host != null) ? hosts.get(task.host) : null;
+            if (stats != null) {
+                stats.running--;
+                stats.completed++;
+                forgetIfIdle(stats);
+            }
+        }
+        dispatch();
+        shutdownIfIdle();
+    }
+
+    /**
+     * Moves a waiting task to the lane of its new priority.
+     */
+    private synchronized void changePriority(@NonNull Task task, int threadPriority) {
+        task.threadPriority = threadPriority;
+        if (task.state != Task.STATE_QUEUED) return;
+
+        int lane = laneOf(threadPriority);
+        if (lane < task.lane && lanes[task.lane].remove(task)) {
+            task.lane = lane;
+            lanes[lane].add(task);
+        }
+    }
+
+    /**
+     * Removes a waiting task from its lane.
+     *
+     * @return true if the task was waiting, it will never run.
+     */
+    private boolean remove(@NonNull Task task) {
+        synchronized (this) {
+            if (task.state == Task.STATE_SCHEDULED) {
+                task.state = Task.STATE_CANCELLED;
+                scheduledCount--;
+            } else {
+                if (task.state != Task.STATE_QUEUED || !lanes[task.lane].remove(task)) return false;
+                task.state = Task.STATE_CANCELLED;
+                queuedCount--;
+                HostStats stats = (task.host != null) ? hosts.get(task.host) : null;
+                if (stats != null) {
+                    stats.queued--;
+                    forgetIfIdle(stats);
+                }
+            }
+        }
+        shutdownIfIdle();
+        return true;
+    }
+
+    /**
+     * Removes a host without waiting or running requests, so the map doesn't keep every host ever seen.
+     * Has to be called while holding this object's lock.
+     */
+    private void forgetIfIdle(@NonNull HostStats stats) {
+        if (stats.queued <= 0 && stats.running <= 0) hosts.remove(stats.host);
+    }
+
+    /**
+     * Sets the time a request waits in its lane before being moved to the lane above.
+     *
+     * @param agingMillis: time in millis
+     */
+    public void setAgingMillis(long agingMillis) {
+        this.agingMillis = agingMillis;
+    }
+
+    public long getAgingMillis() {
+        return agingMillis;
+    }
+
+    /**
+     * @return the number of requests waiting for a thread.
+     */
+    public synchronized int getQueueDepth() {
+        return queuedCount;
+    }
+
+    /**
+     * @param lane: one of LANE_* values.
+     * @return the number of requests waiting in this lane.
+     */
+    public synchronized int getQueueDepth(int lane) {
+        if (lane < 0 || lane >= LANES_COUNT) return 0;
+        return lanes[lane].size;
+    }
+
+    /**
+     * Sets the maximum number of requests to the same host running at the same time.
+     *
+     * @param maxRequestsPerHost: maximum number of requests.
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+        /**
+         * a higher limit may let waiting requests start
+         */
+        dispatch();
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * @param host: host of the request urls.
+     * @return a copy of the stats of this host, or null if it has no waiting or running request.
+     */
+    @Nullable
+    public synchronized HostStats getHostStats(@NonNull String host) {
+        HostStats stats = hosts.get(host.toLowerCase(Locale.US));
+        return (stats != null) ? stats.copy() : null;
+    }
+
+    /**
+     * @return a copy of the stats of every host having waiting or running requests.
+     */
+    @NonNull
+    public synchronized ArrayList<HostStats> getHostStats() {
+        ArrayList<HostStats> copies = new ArrayList<>(hosts.size());
+        for (HostStats stats : hosts.values()) copies.add(stats.copy());
+        return copies;
+    }
+
+    /**
+     * @return the number of requests currently running.
+     */
+    public synchronized int getActiveCount() {
+        return runningCount;
+    }
+
+    /**
+     * @return the number of threads currently in the pool.
+     */
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * @return the largest number of threads that have ever simultaneously been in the pool.
+     */
+    public int getLargestPoolSize() {
+        return executor.getLargestPoolSize();
+    }
+
+    /**
+     * @return the number of requests that have completed execution.
+     */
+    public long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public int getCorePoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * A request waiting in, or taken from, one of the executor lanes.
+     */
+    public final class Task implements Runnable {
+        private static final int STATE_QUEUED = 0;
+        private static final int STATE_RUNNING = 1;
+        private static final int STATE_CANCELLED = 2;
+        private static final int STATE_SCHEDULED = 3;
+
+        private final Runnable runnable;
+        @Nullable
+        private final String host;
+        private volatile int threadPriority;
+        private int lane;
+        private int state = STATE_QUEUED;
+        private long enqueuedAt;
+
+        private Task(@NonNull Runnable runnable, int threadPriority, @Nullable String host) {
+            this.runnable = runnable;
+            this.host = (host != null) ? host.toLowerCase(Locale.US) : null;
+            this.threadPriority = threadPriority;
+            this.lane = laneOf(threadPriority);
+        }
+
+        /**
+         * Changes the priority of this task, a waiting task can only be moved to a higher lane,
+         * a running task gets its new thread priority only when it runs again.
+         *
+         * @param threadPriority: one of {@link HttpConnection} PRIORITY_* values.
+         */
+        public void setPriority(int threadPriority) {
+            changePriority(this, threadPriority);
+        }
+
+        /**
+         * Removes this task from its lane, or from the scheduler, if it's still waiting,
+         * a running task can't be stopped from here.
+         *
+         * @return true if the task won't run.
+         */
+        public boolean cancel() {
+            return remove(this);
+        }
+
+        /**
+         * @return true while the task is still waiting for a thread.
+         */
+        public boolean isQueued() {
+            synchronized (RequestExecutor.this) {
+                return state == STATE_QUEUED;
+            }
+        }
+
+        /**
+         * @return the lane this task is waiting in.
+         */
+        public int getLane() {
+            synchronized (RequestExecutor.this) {
+                return lane;
+            }
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(threadPriority);
+            try {
+                runnable.run();
+            } finally {
+                /**
+                 * giving the thread back to the pool with its default priority
+                 */
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                onTaskFinished(this);
+            }
+        }
+    }
+
+    /**
+     * The waiting requests of one priority, one queue per host, the hosts take turns.
+     * Used while holding the executor lock.
+     */
+    private final class Lane {
+        private final HashMap<String, ArrayDeque<Task>> queues = new HashMap<>();
+        /**
+         * hosts having waiting requests, the next one to be served first.
+         */
+        private final ArrayDeque<String> turns = new ArrayDeque<>();
+        private int size = 0;
+
+        private void add(@NonNull Task task) {
+            String key = keyOf(task);
+            ArrayDeque<Task> queue = queues.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(key, queue);
+                turns.addLast(key);
+            }
+            queue.addLast(task);
+            size++;
+        }
+
+        private boolean remove(@NonNull Task task) {
+            String key = keyOf(task);
+            ArrayDeque<Task> queue = queues.get(key);
+            if (queue == null || !queue.remove(task)) return false;
+            if (queue.isEmpty()) {
+                queues.remove(key);
+                turns.remove(key);
+            }
+            size--;
+            return true;
+        }
+
+        /**
+         * @return the first request of the next host allowed to start one, or null.
+         */
+        @Nullable
+        private Task poll() {
+            for (int i = 0, count = turns.size(); i < count; i++) {
+                String key = turns.pollFirst();
+                ArrayDeque<Task> queue = queues.get(key);
+                if (!canStart(queue.peekFirst().host)) {
+                    turns.addLast(key);
+                    continue;
+                }
+                Task task = queue.pollFirst();
+                if (queue.isEmpty()) queues.remove(key);
+                else turns.addLast(key);
+                size--;
+                return task;
+            }
+            return null;
+        }
+
+        /**
+         * @return the requests queued before the deadline, or null.
+         * The whole lane is scanned, a request moved here by a new priority keeps its enqueue time
+         * and waits behind newer ones.
+         */
+        @Nullable
+        private ArrayList<Task> aged(long deadlineNanos) {
+            ArrayList<Task> aged = null;
+            for (ArrayDeque<Task> queue : queues.values()) {
+                for (Task task : queue) {
+                    if (task.enqueuedAt > deadlineNanos) continue;
+                    if (aged == null) aged = new ArrayList<>();
+                    aged.add(task);
+                }
+            }
+            return aged;
+        }
+
+        @NonNull
+        private String keyOf(@NonNull Task task) {
+            return (task.host != null) ? task.host : "";
+        }
+    }
+
+    /**
+     * Requests of one host.
+     */
+    public static final class HostStats {
+        private final String host;
+        private int queued = 0;
+        private int maxQueued = 0;
+        private int running = 0;
+        private long completed = 0;
+
+        private HostStats(@NonNull String host) {
+            this.host = host;
+        }
+
+        @NonNull
+        private HostStats copy() {
+            HostStats copy = new HostStats(host);
+            copy.queued = queued;
+            copy.maxQueued = maxQueued;
+            copy.running = running;
+            copy.completed = completed;
+            return copy;
+        }
+
+        @NonNull
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return the number of requests waiting for a thread.
+         */
+        public int getQueueDepth() {
+            return queued;
+        }
+
+        /**
+         * @return the highest number of requests that waited at the same time, since the host became busy.
+         */
+        public int getMaxQueueDepth() {
+            return maxQueued;
+        }
+
+        /**
+         * @return the number of requests currently running.
+         */
+        public int getActiveCount() {
+            return running;
+        }
+
+        /**
+         * @return the number of requests that have completed execution, since the host became busy.
+         */
+        public long getCompletedCount() {
+            return completed;
+        }
+    }
+
+    /**
+     * gives the pool threads readable names, helpful when profiling.
+     */
+    private static final class RequestThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(runnable, "Arrowbow-request-" + count.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The goal of this class is to aggregate the {@link RequestTimings} of all requests per host,
+ * so a slow p99 can be traced to the queue of the library, the connection, the server or the transfer.
+ * <p>
+ * Every request that delivered its final event is recorded, the histograms of a host are read with
+ * {@link #getHostMetrics(String)}.
+ */
+public final class RequestMetrics {
+
+    private static final HashMap<String, HostMetrics> hosts = new HashMap<>();
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private RequestMetrics() {
+    }
+
+    /**
+     * Records the timings of a finished request.
+     *
+     * @param host:    host of the request url.
+     * @param timings: timings of the attempt that delivered the final event.
+     */
+    static void record(@NonNull String host, @NonNull RequestTimings timings) {
+        HostMetrics metrics;
+        synchronized (RequestMetrics.class) {
+            String key = host.toLowerCase(Locale.US);
+            metrics = hosts.get(key);
+            if (metrics == null) {
+                metrics = new HostMetrics(key);
+                hosts.put(key, metrics);
+            }
+        }
+        metrics.queue.record(timings.getQueueMillis());
+        metrics.connect.record(timings.getConnectMillis());
+        metrics.timeToFirstByte.record(timings.getTimeToFirstByteMillis());
+        metrics.transfer.record(timings.getTransferMillis());
+        metrics.delivery.record(timings.getDeliveryMillis());
+        metrics.total.record(timings.getTotalMillis());
+    }
+
+    /**
+     * @param host: host of the request urls.
+     * @return the histograms of this host, or null if no request to it finished.
+     */
+    @Nullable
+    public static synchronized HostMetrics getHostMetrics(@NonNull String host) {
+        return hosts.get(host.toLowerCase(Locale.US));
+    }
+
+    /**
+     * @return the histograms of every host.
+     */
+    @NonNull
+    public static synchronized ArrayList<HostMetrics> getHostMetrics() {
+        return new ArrayList<>(hosts.values());
+    }
+
+    /**
+     * Forgets the timings of all hosts.
+     */
+    public static synchronized void reset() {
+        hosts.clear();
+    }
+
+    /**
+     * Histograms of the requests to one host, one per interval of {@link RequestTimings}.
+     */
+    public static final class HostMetrics {
+        private final String host;
+        private final LatencyHistogram queue = new LatencyHistogram();
+        private final LatencyHistogram connect = new LatencyHistogram();
+        private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+        private final LatencyHistogram transfer = new LatencyHistogram();
+        private final LatencyHistogram delivery = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        private HostMetrics(@NonNull String host) {
+            this.host = host;
+        }
+
+        @NonNull
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return the time requests waited for a thread, see {@link RequestTimings#getQueueMillis()}.
+         */
+        @NonNull
+        public LatencyHistogram getQueueLatency() {
+            return queue.copy();
+        }
+
+        /**
+         * @return see {@link RequestTimings#getConnectMillis()}.
+         */
+        @NonNull
+        public LatencyHistogram getConnectLatency() {
+            return connect.copy();
+        }
+
+        /**
+         * @return see {@link RequestTimings#getTimeToFirstByteMillis()}.
+         */
+        @NonNull
+        public LatencyHistogram getTimeToFirstByte() {
+            return timeToFirstByte.copy();
+        }
+
+        /**
+         * @return see {@link RequestTimings#getTransferMillis()}.
+         */
+        @NonNull
+        public LatencyHistogram getTransferLatency() {
+            return transfer.copy();
+        }
+
+        /**
+         * @return the time results waited for the main thread, see {@link RequestTimings#getDeliveryMillis()}.
+         */
+        @NonNull
+        public LatencyHistogram getDeliveryLatency() {
+            return delivery.copy();
+        }
+
+        /**
+         * @return see {@link RequestTimings#getTotalMillis()}.
+         */
+        @NonNull
+        public LatencyHistogram getTotalLatency() {
+            return total.copy();
+        }
+    }
+}
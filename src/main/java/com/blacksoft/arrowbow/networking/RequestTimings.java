@@ -0,0 +1,133 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The goal of this class is to record when a request went through each phase of its life,
+ * to tell the time spent waiting in the library from the time spent on the network.
+ * <p>
+ * Times are read from {@link System#nanoTime()}, they can only be compared with each other.
+ * {@link java.net.HttpURLConnection} doesn't expose the DNS lookup and the TLS handshake,
+ * they are part of the {@link #PHASE_CONNECTED} phase, and it reads the status line and the headers at once,
+ * so {@link #PHASE_FIRST_BYTE} is reached when the status line arrived and {@link #PHASE_HEADERS_PARSED}
+ * right after the headers were read.
+ * <p>
+ * A retried request gets new timings for every attempt, a response read from the {@link HttpCache}
+ * skips the network phases.
+ */
+public final class RequestTimings {
+
+    /**
+     * Phases of a request, in the order they are reached.
+     */
+    public static final int PHASE_QUEUED = 0;
+    public static final int PHASE_STARTED = 1;
+    public static final int PHASE_CONNECTED = 2;
+    public static final int PHASE_FIRST_BYTE = 3;
+    public static final int PHASE_HEADERS_PARSED = 4;
+    public static final int PHASE_BODY_COMPLETE = 5;
+    public static final int PHASE_CALLBACK_DELIVERED = 6;
+    private static final int PHASES_COUNT = 7;
+
+    private final long[] nanos = new long[PHASES_COUNT];
+    private final int attempt;
+
+    RequestTimings(int attempt) {
+        this.attempt = attempt;
+        for (int i = 0; i < PHASES_COUNT; i++) nanos[i] = -1;
+    }
+
+    /**
+     * Records the time a phase is reached, only its first time counts.
+     *
+     * @return true if the phase wasn't reached before.
+     */
+    synchronized boolean mark(int phase) {
+        if (nanos[phase] != -1) return false;
+        nanos[phase] = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * @param phase: one of the PHASE_* values.
+     * @return the {@link System#nanoTime()} of the phase, or -1 if it wasn't reached.
+     */
+    public synchronized long getNanos(int phase) {
+        if (phase < 0 || phase >= PHASES_COUNT) return -1;
+        return nanos[phase];
+    }
+
+    /**
+     * @return the time between two phases in millis, or -1 if one of them wasn't reached.
+     */
+    public synchronized long getMillis(int fromPhase, int toPhase) {
+        long from = getNanos(fromPhase);
+        long to = getNanos(toPhase);
+        if (from == -1 || to == -1) return -1;
+        return TimeUnit.NANOSECONDS.toMillis(to - from);
+    }
+
+    /**
+     * @return the time waited for a thread.
+     */
+    public long getQueueMillis() {
+        return getMillis(PHASE_QUEUED, PHASE_STARTED);
+    }
+
+    /**
+     * @return the time taken to open the connection, DNS lookup and TLS handshake included.
+     */
+    public long getConnectMillis() {
+        return getMillis(PHASE_STARTED, PHASE_CONNECTED);
+    }
+
+    /**
+     * @return the time between the connection and the first byte of the response, the upload of the request
+     * body included.
+     */
+    public long getTimeToFirstByteMillis() {
+        return getMillis(PHASE_CONNECTED, PHASE_FIRST_BYTE);
+    }
+
+    /**
+     * @return the time taken to read the response body.
+     */
+    public long getTransferMillis() {
+        return getMillis(PHASE_HEADERS_PARSED, PHASE_BODY_COMPLETE);
+    }
+
+    /**
+     * @return the time between the end of the response and its delivery to the main thread.
+     */
+    public long getDeliveryMillis() {
+        return getMillis(PHASE_BODY_COMPLETE, PHASE_CALLBACK_DELIVERED);
+    }
+
+    /**
+     * @return the time between queuing the request and delivering its result.
+     */
+    public long getTotalMillis() {
+        return getMillis(PHASE_QUEUED, PHASE_CALLBACK_DELIVERED);
+    }
+
+    /**
+     * @return the attempt these timings belong to, starting from 1.
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "\nattempt: " + attempt
+                + "\nqueue: " + getQueueMillis() + " ms"
+                + "\nconnect: " + getConnectMillis() + " ms"
+                + "\ntime to first byte: " + getTimeToFirstByteMillis() + " ms"
+                + "\ntransfer: " + getTransferMillis() + " ms"
+                + "\ndelivery: " + getDeliveryMillis() + " ms"
+                + "\ntotal: " + getTotalMillis() + " ms";
+    }
+}
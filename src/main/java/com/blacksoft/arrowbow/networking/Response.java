@@ -25,6 +25,8 @@ public class Response {
     private int responseCode, connectTimeout, readTimeout;
     private long contentLength = 0;
     private Object result;
+    private boolean fromCache = false;
+    private RequestTimings timings;
 
 
     public Response(@Nullable HttpURLConnection httpURLConnection, @Nullable String result) {
@@ -104,6 +106,31 @@ public class Response {
         return url;
     }
 
+    /**
+     * @return true if the result was read from the {@link HttpCache} instead of being downloaded.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    public Response setFromCache(boolean fromCache) {
+        this.fromCache = fromCache;
+        return this;
+    }
+
+    /**
+     * @return when the request went through each of its phases, null if it wasn't sent by an {@link HttpConnection}.
+     */
+    @Nullable
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
+    Response setTimings(@Nullable RequestTimings timings) {
+        this.timings = timings;
+        return this;
+    }
+
     public Response setResult(Object result) {
         this.result = result;
         return this;
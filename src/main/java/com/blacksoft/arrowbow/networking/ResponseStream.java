@@ -0,0 +1,85 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * The goal of this class is to give the body of a response to the user while keeping its connection open,
+ * the result of {@link HttpConnection#getInputStream(String, RequestHeader)}.
+ * <p>
+ * The stream belongs to the user from the moment it's delivered: it has to be read away from the main thread,
+ * in doInBackgroundThread or on another thread, and closed once done. Closing it gives the connection back to
+ * the keep-alive pool when {@link HttpConnection#setReuseConnection(boolean)} is enabled and the rest of the
+ * response is small, otherwise the connection is closed. {@link #abort()} closes the connection without reading
+ * what's left.
+ */
+public final class ResponseStream extends FilterInputStream {
+
+    private final HttpConnection owner;
+    private final HttpURLConnection connection;
+    private final long contentLength;
+    private volatile boolean closed = false;
+
+    ResponseStream(@NonNull HttpConnection owner, @NonNull HttpURLConnection connection,
+                   @NonNull InputStream inputStream, long contentLength) {
+        super(inputStream);
+        this.owner = owner;
+        this.connection = connection;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * @return the size of the response body in bytes, or -1 if it isn't known.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Releases the connection, reading what's left of the response if it can be reused.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        owner.releaseConnection(connection, in);
+    }
+
+    /**
+     * Closes the connection right away, the rest of the response is never downloaded.
+     */
+    public void abort() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connection.disconnect();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        return super.read();
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        return super.read(buffer, offset, length);
+    }
+}
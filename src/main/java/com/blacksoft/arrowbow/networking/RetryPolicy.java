@@ -0,0 +1,195 @@
+package com.blacksoft.arrowbow.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * The goal of this class is to decide whether a failed request is sent again, and when.
+ * <p>
+ * The delay before attempt n is a random time between 0 and min(maxDelay, baseDelay * 2^(n-1)) (full jitter),
+ * so clients failing at the same time don't retry at the same time, a Retry-After header sent by the server
+ * is respected instead.
+ * <p>
+ * GET, PUT and DELETE requests are retried, POST and PATCH requests aren't idempotent and are retried only
+ * after {@link #setRetryNonIdempotent(boolean)}.
+ * The policy is meant to be configured once before being given to {@link HttpConnection#setRetryPolicy(RetryPolicy)}.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final Random random = new Random();
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private boolean retryNonIdempotent = false;
+
+    private final HashSet<Integer> retryableStatusCodes = new HashSet<>();
+    private final ArrayList<Class<? extends IOException>> retryableExceptions = new ArrayList<>();
+
+    /**
+     * Creates a policy retrying timeouts, connection failures and the 408, 429, 500, 502, 503 and 504
+     * response codes, up to 3 attempts.
+     */
+    public RetryPolicy() {
+        retryableStatusCodes.add(HttpURLConnection.HTTP_CLIENT_TIMEOUT);
+        retryableStatusCodes.add(429); // Too Many Requests
+        retryableStatusCodes.add(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        retryableStatusCodes.add(HttpURLConnection.HTTP_BAD_GATEWAY);
+        retryableStatusCodes.add(HttpURLConnection.HTTP_UNAVAILABLE);
+        retryableStatusCodes.add(HttpURLConnection.HTTP_GATEWAY_TIMEOUT);
+
+        retryableExceptions.add(SocketTimeoutException.class);
+        retryableExceptions.add(ConnectException.class);
+        retryableExceptions.add(SocketException.class);
+        retryableExceptions.add(UnknownHostException.class);
+        retryableExceptions.add(EOFException.class);
+    }
+
+    /**
+     * @param maxAttempts: maximum number of times a request is sent, 1 to never retry.
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param baseDelayMillis: maximum delay before the first retry, it doubles for every next one.
+     */
+    public RetryPolicy setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        return this;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /**
+     * @param maxDelayMillis: the longest delay before a retry, a server asking to wait longer isn't retried.
+     */
+    public RetryPolicy setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+        return this;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Whether POST and PATCH requests are retried too, the server may then receive them twice.
+     */
+    public RetryPolicy setRetryNonIdempotent(boolean retryNonIdempotent) {
+        this.retryNonIdempotent = retryNonIdempotent;
+        return this;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    public RetryPolicy addRetryableStatusCode(int responseCode) {
+        retryableStatusCodes.add(responseCode);
+        return this;
+    }
+
+    public RetryPolicy removeRetryableStatusCode(int responseCode) {
+        retryableStatusCodes.remove(responseCode);
+        return this;
+    }
+
+    /**
+     * @param exception: exception type to be retried, its subclasses are retried too.
+     */
+    public RetryPolicy addRetryableException(@NonNull Class<? extends IOException> exception) {
+        if (!retryableExceptions.contains(exception)) retryableExceptions.add(exception);
+        return this;
+    }
+
+    public RetryPolicy removeRetryableException(@NonNull Class<? extends IOException> exception) {
+        retryableExceptions.remove(exception);
+        return this;
+    }
+
+    /**
+     * @param connectionMethod: http method of the request, GET, POST ...
+     * @return true if requests using this method can be retried.
+     */
+    public boolean isRetryable(@NonNull String connectionMethod) {
+        if (connectionMethod.equals("POST") || connectionMethod.equals("PATCH")) return retryNonIdempotent;
+        return true;
+    }
+
+    /**
+     * @return true if a request answered with this response code can be retried.
+     */
+    public boolean isRetryable(int responseCode) {
+        return retryableStatusCodes.contains(responseCode);
+    }
+
+    /**
+     * @return true if a request failing with this exception can be retried.
+     */
+    public boolean isRetryable(@NonNull IOException exception) {
+        for (int i = 0; i < retryableExceptions.size(); i++)
+            if (retryableExceptions.get(i).isInstance(exception)) return true;
+        return false;
+    }
+
+    /**
+     * @param attempt:    number of the attempt that just failed, starting from 1.
+     * @param connection: the failed connection, to read its Retry-After header, can be null.
+     * @return the delay in millis before the next attempt, or -1 if the server asks to wait longer than
+     * the maximum delay.
+     */
+    public long getDelayMillis(int attempt, @Nullable HttpURLConnection connection) {
+        long retryAfter = (connection != null) ? retryAfterMillis(connection) : -1;
+        if (retryAfter >= 0) return (retryAfter <= maxDelayMillis) ? retryAfter : -1;
+
+        /**
+         * full jitter
+         */
+        long ceiling = baseDelayMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) ceiling = maxDelayMillis;
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    /**
+     * Retry-After holds either a number of seconds or a date.
+     *
+     * @return the time to wait in millis, or -1 if the header is missing or wrong.
+     */
+    private static long retryAfterMillis(@NonNull HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField(RETRY_AFTER);
+        if (retryAfter == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            long date = connection.getHeaderFieldDate(RETRY_AFTER, -1);
+            return (date == -1) ? -1 : Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+}
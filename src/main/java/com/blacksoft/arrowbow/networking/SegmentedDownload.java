@@ -0,0 +1,472 @@
+package com.blacksoft.arrowbow.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.blacksoft.arrowbow.storage_manager.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The goal of this class is to download a big file over several connections at the same time,
+ * each one fetching its own byte range and writing it at its own offset of a preallocated file.
+ * <p>
+ * The download starts with the connection already opened by {@link HttpConnection}, then a new connection
+ * is added every time the measured throughput still grows, up to the maximum number of segments.
+ * A new connection takes over the second half of the biggest remaining range, and a connection that finishes
+ * its range takes over part of another one, so all connections keep working till the end.
+ * <p>
+ * Every range request carries an If-Range header with the validator of the first response, and its
+ * Content-Range must be exactly the asked one: if the file changed on the server, the download fails instead
+ * of mixing the bytes of two versions.
+ * <p>
+ * Connections run on the shared {@link RequestExecutor}, no thread ever waits for another one:
+ * the last connection to stop completes the download.
+ */
+abstract class SegmentedDownload {
+
+    /**
+     * Files smaller than this are downloaded over a single connection.
+     */
+    static final long MIN_SEGMENTED_LENGTH = 4 * 1024 * 1024;
+
+    /**
+     * A range is never split into parts smaller than this.
+     */
+    private static final long MIN_SEGMENT_LENGTH = 512 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SAMPLE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * A new connection is kept only if it improves the throughput by at least 10 %.
+     */
+    private static final double MIN_THROUGHPUT_GAIN = 1.1;
+
+    private final File target;
+    private final long length;
+    private final int maxSegments;
+    private final int threadPriority;
+    private final int maxFailures;
+
+    private FileChannel channel;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private int activeWorkers = 0;
+    private int failures = 0;
+    private long downloadedBytes = 0;
+    private boolean cancelled = false;
+    /**
+     * Whether a range didn't match the file of the first response, the download then fails.
+     */
+    private boolean changed = false;
+    @Nullable
+    private final String host;
+    /**
+     * ETag or Last-Modified of the first response, sent in the If-Range header of every range request.
+     */
+    private String validator;
+
+    /**
+     * Connections currently reading, disconnected by {@link #cancel()}.
+     */
+    private final ArrayList<HttpURLConnection> connections = new ArrayList<>();
+
+    /**
+     * Throughput measurement
+     */
+    private long sampleStartedAt;
+    private long sampleStartBytes = 0;
+    private double bestThroughput = 0;
+    private boolean saturated = false;
+
+    /**
+     * @param target:         the file to write, it's created with its final size.
+     * @param length:         size of the whole file in bytes.
+     * @param maxSegments:    maximum number of connections at the same time.
+     * @param threadPriority: priority of the added connections, one of {@link HttpConnection} PRIORITY_* values.
+     * @param host:           host of the file url, the added connections count in its request limit.
+     */
+    SegmentedDownload(@NonNull File target, long length, int maxSegments, int threadPriority, @Nullable String host) {
+        this.target = target;
+        this.host = host;
+        this.length = length;
+        this.maxSegments = maxSegments;
+        this.threadPriority = threadPriority;
+        this.maxFailures = maxSegments * 3;
+    }
+
+    /**
+     * @return true if the server allows downloading this response over several connections.
+     */
+    static boolean isSupported(@NonNull HttpURLConnection connection, long length) throws IOException {
+        String acceptRanges = connection.getHeaderField("Accept-Ranges");
+        String contentEncoding = connection.getContentEncoding();
+        return connection.getResponseCode() == HttpURLConnection.HTTP_OK
+                && length >= MIN_SEGMENTED_LENGTH
+                && acceptRanges != null && acceptRanges.trim().equalsIgnoreCase("bytes")
+                && (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity"))
+                && validatorOf(connection) != null;
+    }
+
+    /**
+     * @return the strong ETag of a response, or its Last-Modified date, or null if it has none,
+     * a weak ETag can't be used in an If-Range header.
+     */
+    @Nullable
+    private static String validatorOf(@NonNull HttpURLConnection connection) {
+        String eTag = connection.getHeaderField("ETag");
+        if (eTag != null && !eTag.trim().isEmpty() && !eTag.trim().startsWith("W/")) return eTag.trim();
+        String lastModified = connection.getHeaderField("Last-Modified");
+        return (lastModified != null && !lastModified.trim().isEmpty()) ? lastModified.trim() : null;
+    }
+
+    /**
+     * @return true if the Content-Range of a partial response is exactly the asked range of this file.
+     */
+    private boolean isAskedRange(@NonNull HttpURLConnection connection, long start, long end) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) return false;
+        contentRange = contentRange.trim();
+        if (!contentRange.regionMatches(true, 0, "bytes ", 0, 6)) return false;
+
+        int dash = contentRange.indexOf('-', 6);
+        int slash = contentRange.indexOf('/', dash + 1);
+        if (dash < 0 || slash < 0) return false;
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim()) == start
+                    && Long.parseLong(contentRange.substring(dash + 1, slash).trim()) == end
+                    && Long.parseLong(contentRange.substring(slash + 1).trim()) == length;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a connection asking for a range of the file.
+     *
+     * @param start: offset of the first byte.
+     * @param end:   offset of the last byte (inclusive).
+     */
+    @NonNull
+    protected abstract HttpURLConnection openRange(long start, long end) throws IOException;
+
+    /**
+     * Called every time new bytes are written, from the thread that wrote them.
+     *
+     * @param numberOfReadBytes: bytes written till now by all connections.
+     * @param downloadSize:      size of the whole file.
+     */
+    protected void onProgress(long numberOfReadBytes, long downloadSize) {
+    }
+
+    /**
+     * Called once, when the last connection stops.
+     *
+     * @param success: true if every byte of the file is written.
+     */
+    protected abstract void onComplete(boolean success);
+
+    /**
+     * Starts the download, the first range is read in the calling thread from the already opened connection.
+     *
+     * @param connection:  connection answering the first request, with the whole file.
+     * @param inputStream: its response stream.
+     */
+    final void start(@NonNull HttpURLConnection connection, @NonNull InputStream inputStream) {
+        Segment first = new Segment(0, length);
+        synchronized (this) {
+            try {
+                /**
+                 * the file gets its final size before the transfer starts
+                 */
+                RandomAccessFile file = new RandomAccessFile(target, "rw");
+                file.setLength(length);
+                channel = file.getChannel();
+            } catch (IOException e) {
+                Log.e("Arrowbow_library", "" + e.getMessage());
+                connection.disconnect();
+                target.delete();
+                onComplete(false);
+                return;
+            }
+            validator = validatorOf(connection);
+            segments.add(first);
+            connections.add(connection);
+            activeWorkers = 1;
+            sampleStartedAt = System.nanoTime();
+        }
+        work(first, connection, inputStream);
+    }
+
+    /**
+     * Reads ranges one after the other till there is nothing left to take over.
+     */
+    private void work(@NonNull Segment segment, @Nullable HttpURLConnection connection,
+                      @Nullable InputStream inputStream) {
+        byte[] buffer = BufferPool.getBytes(BUFFER_SIZE);
+        /**
+         * the first connection answers with the whole file, it's never read till its end.
+         */
+        boolean rangeConnection = connection == null;
+
+        while (segment != null) {
+            boolean completed = false;
+            try {
+                if (connection == null) {
+                    long start, end;
+                    String ifRange;
+                    synchronized (this) {
+                        start = segment.position;
+                        end = segment.end;
+                        ifRange = validator;
+                    }
+                    connection = openRange(start, end - 1);
+                    connection.setRequestProperty("If-Range", ifRange);
+                    rangeConnection = true;
+                    synchronized (this) {
+                        connections.add(connection);
+                        if (cancelled) throw new IOException("Download cancelled");
+                    }
+                    if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                            || !isAskedRange(connection, start, end - 1)) {
+                        /**
+                         * a whole response means the file changed since the first request,
+                         * a different range would be written at the wrong place.
+                         */
+                        onFileChanged();
+                        throw new IOException("Range " + start + "-" + (end - 1) + " doesn't match the file, response code: "
+                                + connection.getResponseCode()
+                                + ", Content-Range: " + connection.getHeaderField("Content-Range"));
+                    }
+                    inputStream = connection.getInputStream();
+                }
+                completed = read(segment, inputStream, buffer);
+            } catch (IOException e) {
+                Log.e("Arrowbow_library", "" + e.getMessage());
+            } finally {
+                release(connection, inputStream, completed && rangeConnection);
+                connection = null;
+                inputStream = null;
+            }
+
+            segment = nextSegment(segment, completed);
+        }
+        BufferPool.recycle(buffer);
+
+        boolean last;
+        synchronized (this) {
+            activeWorkers--;
+            last = activeWorkers == 0;
+        }
+        if (last) finish();
+    }
+
+    /**
+     * Copies a range from the stream to the file.
+     *
+     * @return true if the whole range is written.
+     */
+    private boolean read(@NonNull Segment segment, @NonNull InputStream inputStream, @NonNull byte[] buffer)
+            throws IOException {
+        while (true) {
+            long position, remaining;
+            synchronized (this) {
+                position = segment.position;
+                remaining = segment.end - segment.position;
+            }
+            if (remaining <= 0) return true;
+            if (isCancelled()) return false;
+
+            int size = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (size == -1) return false;
+
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, size);
+            long offset = position;
+            while (byteBuffer.hasRemaining()) offset += channel.write(byteBuffer, offset);
+
+            long numberOfReadBytes;
+            synchronized (this) {
+                /**
+                 * the range may have been shortened by another connection while reading,
+                 * the bytes written past its new end are the same ones the other connection writes.
+                 */
+                long accepted = Math.max(0, Math.min(size, segment.end - segment.position));
+                segment.position += accepted;
+                downloadedBytes += accepted;
+                numberOfReadBytes = downloadedBytes;
+            }
+            onProgress(numberOfReadBytes, length);
+            sampleThroughput();
+        }
+    }
+
+    /**
+     * Gives a stopped connection a new range to read, a failed range is left for the next connection
+     * that becomes free.
+     */
+    @Nullable
+    private synchronized Segment nextSegment(@NonNull Segment current, boolean completed) {
+        current.active = false;
+        if (cancelled) return null;
+        if (!completed && current.end > current.position && ++failures > maxFailures) return null;
+        return takeOver();
+    }
+
+    /**
+     * @return a range without connection, or the second half of the biggest range being read.
+     * Has to be called while holding this object's lock.
+     */
+    @Nullable
+    private Segment takeOver() {
+        Segment biggest = null;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            long remaining = segment.end - segment.position;
+            if (remaining <= 0) continue;
+            if (!segment.active) {
+                segment.active = true;
+                return segment;
+            }
+            if (biggest == null || remaining > biggest.end - biggest.position) biggest = segment;
+        }
+
+        if (biggest == null || biggest.end - biggest.position < 2 * MIN_SEGMENT_LENGTH) return null;
+
+        long middle = biggest.position + (biggest.end - biggest.position) / 2;
+        Segment half = new Segment(middle, biggest.end);
+        biggest.end = middle;
+        segments.add(half);
+        return half;
+    }
+
+    /**
+     * Adds a connection while it makes the download faster.
+     */
+    private void sampleThroughput() {
+        final Segment segment;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (cancelled || saturated || now - sampleStartedAt < SAMPLE_WINDOW_NANOS) return;
+
+            double throughput = (downloadedBytes - sampleStartBytes) / (double) (now - sampleStartedAt);
+            sampleStartedAt = now;
+            sampleStartBytes = downloadedBytes;
+
+            if (activeWorkers >= maxSegments || throughput < bestThroughput * MIN_THROUGHPUT_GAIN) {
+                saturated = true;
+                return;
+            }
+            bestThroughput = throughput;
+
+            segment = takeOver();
+            if (segment == null) return;
+            activeWorkers++;
+        }
+
+        RequestExecutor.Task task = RequestExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                work(segment, null, null);
+            }
+        }, threadPriority, host);
+
+        if (task == null) {
+            /**
+             * the executor is full, the range will be read by the next free connection.
+             */
+            synchronized (this) {
+                segment.active = false;
+                activeWorkers--;
+            }
+        }
+    }
+
+    /**
+     * Closes a connection, a connection stopped before the end of its response can't be reused.
+     *
+     * @param reusable: true if the response was read till the end of its range.
+     */
+    private void release(@Nullable HttpURLConnection connection, @Nullable InputStream inputStream,
+                         boolean reusable) {
+        synchronized (this) {
+            connections.remove(connection);
+        }
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (connection != null && !reusable) connection.disconnect();
+    }
+
+    /**
+     * Stops all connections, the download then completes without success and the file is deleted.
+     */
+    final void cancel() {
+        ArrayList<HttpURLConnection> reading;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            reading = new ArrayList<>(connections);
+        }
+        for (int i = 0; i < reading.size(); i++) reading.get(i).disconnect();
+    }
+
+    private synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops the download when the server answers with another version of the file.
+     */
+    private void onFileChanged() {
+        synchronized (this) {
+            changed = true;
+        }
+        cancel();
+    }
+
+    /**
+     * Closes the file and reports the result.
+     */
+    private void finish() {
+        boolean success;
+        synchronized (this) {
+            success = downloadedBytes >= length && !changed;
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+                Log.e("Arrowbow_library", "" + e.getMessage());
+                success = false;
+            }
+        }
+        if (!success) target.delete();
+        onComplete(success);
+    }
+
+    /**
+     * A byte range of the file, from position (next byte to write) to end (exclusive).
+     */
+    private static final class Segment {
+        private long position;
+        private long end;
+        private boolean active = true;
+
+        private Segment(long position, long end) {
+            this.position = position;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.blacksoft.arrowbow.storage_manager;
+
+import android.content.ComponentCallbacks2;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The goal of this class is to reuse the scratch arrays the library copies bytes and chars through,
+ * so dozens of transfers running at once don't keep the garbage collector busy.
+ * <p>
+ * Arrays are borrowed with {@link #getBytes(int)} or {@link #getChars(int)} and
+ * given back with the matching recycle method once they aren't used anymore, an array must never be used after
+ * it's given back. Sizes are rounded up to a power of two between 1kb and 256kb, bigger arrays are never kept.
+ * Borrowed arrays are not cleared, they may still hold the bytes of their last user.
+ * <p>
+ * The pool is split in stripes chosen by thread, so threads rarely wait for each other, and keeps at most
+ * {@link #getMaxRetainedBytes()} bytes. Call {@link #onTrimMemory(int)} from the onTrimMemory of the app
+ * to release them when the system is low on memory.
+ */
+public final class BufferPool {
+
+    private static final int MIN_SHIFT = 10;
+    private static final int MAX_SHIFT = 18;
+    private static final int CLASSES_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+    private static final int STRIPES_COUNT = 4;
+
+    private static final int KIND_BYTES = 0;
+    private static final int KIND_CHARS = 1;
+    private static final int KINDS_COUNT = 2;
+
+    /**
+     * free arrays of every kind, stripe and size class.
+     */
+    private static final ArrayDeque<Object>[][][] free = createSlots();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong retainedBytes = new AtomicLong();
+    private static volatile long maxRetainedBytes = 4 * 1024 * 1024;
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private BufferPool() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Object>[][][] createSlots() {
+        ArrayDeque<Object>[][][] slots = new ArrayDeque[KINDS_COUNT][STRIPES_COUNT][CLASSES_COUNT];
+        for (int kind = 0; kind < KINDS_COUNT; kind++)
+            for (int stripe = 0; stripe < STRIPES_COUNT; stripe++)
+                for (int sizeClass = 0; sizeClass < CLASSES_COUNT; sizeClass++)
+                    slots[kind][stripe][sizeClass] = new ArrayDeque<>();
+        return slots;
+    }
+
+    /**
+     * @param minLength: number of bytes needed.
+     * @return an array of at least this length.
+     */
+    @NonNull
+    public static byte[] getBytes(int minLength) {
+        int sizeClass = classOf(minLength);
+        if (sizeClass >= 0) {
+            byte[] bytes = (byte[]) poll(KIND_BYTES, sizeClass);
+            if (bytes != null) return bytes;
+            return new byte[1 << (sizeClass + MIN_SHIFT)];
+        }
+        misses.incrementAndGet();
+        return new byte[minLength];
+    }
+
+    /**
+     * Gives back an array taken from {@link #getBytes(int)}.
+     */
+    public static void recycle(byte[] bytes) {
+        if (bytes != null) offer(KIND_BYTES, bytes, bytes.length, bytes.length);
+    }
+
+    /**
+     * @param minLength: number of chars needed.
+     * @return an array of at least this length.
+     */
+    @NonNull
+    public static char[] getChars(int minLength) {
+        int sizeClass = classOf(minLength);
+        if (sizeClass >= 0) {
+            char[] chars = (char[]) poll(KIND_CHARS, sizeClass);
+            if (chars != null) return chars;
+            return new char[1 << (sizeClass + MIN_SHIFT)];
+        }
+        misses.incrementAndGet();
+        return new char[minLength];
+    }
+
+    /**
+     * Gives back an array taken from {@link #getChars(int)}.
+     */
+    public static void recycle(char[] chars) {
+        if (chars != null) offer(KIND_CHARS, chars, chars.length, 2L * chars.length);
+    }
+
+    /**
+     * @param maxRetainedBytes: maximum number of bytes kept for reuse, 0 to disable the pool, 4mb by default.
+     */
+    public static void setMaxRetainedBytes(long maxRetainedBytes) {
+        BufferPool.maxRetainedBytes = Math.max(0, maxRetainedBytes);
+        trimTo(BufferPool.maxRetainedBytes);
+    }
+
+    public static long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    /**
+     * @return the number of bytes kept for reuse right now.
+     */
+    public static long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of arrays that had to be allocated.
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the part of the requests served with a reused array, between 0 and 1.
+     */
+    public static double getHitRate() {
+        long hitCount = hits.get();
+        long requestsCount = hitCount + misses.get();
+        return (requestsCount == 0) ? 0 : hitCount / (double) requestsCount;
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Releases the kept arrays depending on how much memory the system needs, call it from the onTrimMemory
+     * of your Application or Activity.
+     *
+     * @param level: the level given to onTrimMemory, a {@link ComponentCallbacks2} constant.
+     */
+    public static void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            trim();
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            trimTo(maxRetainedBytes / 2);
+    }
+
+    /**
+     * Releases all the kept arrays.
+     */
+    public static void trim() {
+        trimTo(0);
+    }
+
+    /**
+     * Releases kept arrays, the biggest first, till at most this number of bytes is kept.
+     */
+    public static void trimTo(long bytes) {
+        for (int sizeClass = CLASSES_COUNT - 1; sizeClass >= 0; sizeClass--) {
+            for (int kind = 0; kind < KINDS_COUNT; kind++) {
+                long arraySize = (long) (kind == KIND_CHARS ? 2 : 1) << (sizeClass + MIN_SHIFT);
+                for (int stripe = 0; stripe < STRIPES_COUNT; stripe++) {
+                    ArrayDeque<Object> slot = free[kind][stripe][sizeClass];
+                    synchronized (slot) {
+                        while (retainedBytes.get() > bytes && slot.pollFirst() != null)
+                            retainedBytes.addAndGet(-arraySize);
+                    }
+                    if (retainedBytes.get() <= bytes) return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the size class holding this length, or -1 if it's too big to be kept.
+     */
+    private static int classOf(int length) {
+        if (length <= 1 << MIN_SHIFT) return 0;
+        int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+        return (shift > MAX_SHIFT) ? -1 : shift - MIN_SHIFT;
+    }
+
+    private static int stripeOfCurrentThread() {
+        return (int) (Thread.currentThread().getId() & (STRIPES_COUNT - 1));
+    }
+
+    private static Object poll(int kind, int sizeClass) {
+        ArrayDeque<Object> slot = free[kind][stripeOfCurrentThread()][sizeClass];
+        Object array;
+        synchronized (slot) {
+            array = slot.pollFirst();
+        }
+        if (array == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        retainedBytes.addAndGet(-(long) (kind == KIND_CHARS ? 2 : 1) * (1 << (sizeClass + MIN_SHIFT)));
+        return array;
+    }
+
+    /**
+     * Keeps an array if it has the exact size of a class and the pool isn't full.
+     */
+    private static void offer(int kind, @NonNull Object array, int length, long bytes) {
+        int sizeClass = classOf(length);
+        if (sizeClass < 0 || length != 1 << (sizeClass + MIN_SHIFT)) return;
+
+        if (retainedBytes.addAndGet(bytes) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-bytes);
+            return;
+        }
+        ArrayDeque<Object> slot = free[kind][stripeOfCurrentThread()][sizeClass];
+        synchronized (slot) {
+            slot.offerFirst(array);
+        }
+    }
+
+    /**
+     * @return the statistics of the pool, readable in the logs.
+     */
+    @NonNull
+    public static String getStats() {
+        return String.format(Locale.US, "hit rate: %.1f%% (%d hits, %d misses), retained: %d / %d bytes",
+                getHitRate() * 100, getHitCount(), getMissCount(), getRetainedBytes(), getMaxRetainedBytes());
+    }
+}
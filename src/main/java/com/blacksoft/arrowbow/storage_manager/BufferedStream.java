@@ -1,41 +1,100 @@
 package com.blacksoft.arrowbow.storage_manager;
 
 
-import java.io.BufferedInputStream;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * @author AbdelWadoud Rasmi
  * <p>
- * Max Buffer size is 2GB
+ * A growable buffer of bytes, stored in fixed size chunks of 16kb so adding bytes never copies
+ * the ones already stored.
+ * <p>
+ * Positions and sizes are longs, the buffer isn't limited to 2GB. {@link #slice(long, long)} gives a view of
+ * a part of the buffer sharing its chunks, {@link #getInputStream()} and {@link #getOutputStream()} let it be
+ * used where streams are expected.
+ * <p>
+ * With {@link #setSpillToDisk(File, long)} the bytes move to a temporary file once the buffer grows over
+ * a threshold, so big payloads can be buffered without running out of memory. Bytes added to a spilled buffer are
+ * staged in a chunk and written to the file 16kb at a time, it's read through a cached chunk of the file,
+ * its slices are copies, and its file is deleted by {@link #clear()}.
+ * <p>
+ * Chunks are taken from the {@link BufferPool} and given back by {@link #clear()}, unless slices share them.
+ * <p>
+ * It isn't thread safe.
  */
 
 public class BufferedStream {
-    private final ArrayList<Byte> bytes;
+
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private ArrayList<byte[]> chunks = new ArrayList<>();
+    /**
+     * Position of the first byte in the first chunk, not 0 for slices.
+     */
+    private int offset = 0;
+    private long size = 0;
+    /**
+     * Whether the last chunk belongs to another buffer too, it's copied before being written.
+     */
+    private boolean shared = false;
+    /**
+     * Whether the chunks belong to this buffer only, false once a slice shares them.
+     */
+    private boolean recyclable = true;
+
+    /**
+     * Spill to disk, the file holds all the bytes once the size passes the threshold, negative to never spill.
+     */
+    private long spillThreshold = -1;
+    private File spillDirectory;
+    private File spillFile;
+    private RandomAccessFile spillAccess;
+    private FileChannel spillChannel;
+    /**
+     * Bytes added since the last write to the file, they are the last ones of the buffer.
+     */
+    private byte[] spillPending;
+    private int spillPendingCount = 0;
+    /**
+     * Last chunk read from the file, the file is only appended so it stays valid.
+     */
+    private byte[] readCache;
+    private long readCacheStart = 0;
+    private int readCacheLength = 0;
 
     /**
      * empty Constructor
      */
     public BufferedStream() {
-        bytes = new ArrayList<>();
     }
 
     /**
      * Constructor
      *
-     * @param b : a byte to be added while initializing the bytes list
+     * @param b : a byte to be added while initializing the buffer
      */
     public BufferedStream(byte b) {
         this();
-        bytes.add(b);
+        add(b);
     }
 
     /**
      * Constructor
      *
-     * @param bytes : a bytes vector to be added in the list.
+     * @param bytes : a bytes vector to be added in the buffer.
      */
     public BufferedStream(byte[] bytes) {
         this();
@@ -45,7 +104,7 @@ public class BufferedStream {
     /**
      * Constructor
      *
-     * @param bytes : a bytes list to be added in the list.
+     * @param bytes : a bytes list to be added in the buffer.
      */
     public BufferedStream(ArrayList<Byte> bytes) {
         this();
@@ -63,17 +122,51 @@ public class BufferedStream {
     }
 
     /**
-     * Clear Buffer content
+     * Moves the bytes to a temporary file when the buffer grows over a threshold.
+     *
+     * @param directory: where the file is created, the app cache for example.
+     * @param threshold: maximum number of bytes kept in memory, negative to keep them all in memory.
+     */
+    public BufferedStream setSpillToDisk(File directory, long threshold) {
+        this.spillDirectory = directory;
+        this.spillThreshold = (directory != null) ? threshold : -1;
+        if (spillThreshold >= 0 && size > spillThreshold) spill();
+        return this;
+    }
+
+    /**
+     * Moves the bytes to a temporary file in the app cache when the buffer grows over a threshold.
+     *
+     * @param context:   any context of the app.
+     * @param threshold: maximum number of bytes kept in memory, negative to keep them all in memory.
+     */
+    public BufferedStream setSpillToDisk(Context context, long threshold) {
+        return setSpillToDisk(context.getApplicationContext().getCacheDir(), threshold);
+    }
+
+    /**
+     * @return true if the bytes are stored in a temporary file.
+     */
+    public boolean isSpilled() {
+        return spillChannel != null;
+    }
+
+    /**
+     * Clear Buffer content, the temporary file of a spilled buffer is deleted.
      */
     public void clear() {
-        bytes.clear();
+        recycleChunks();
+        offset = 0;
+        size = 0;
+        shared = false;
+        deleteSpillFile();
     }
 
     /**
      * @return the number of bytes contained in the buffer
      */
     public long getBytesCount() {
-        return bytes.size();
+        return size;
     }
 
     /**
@@ -82,7 +175,19 @@ public class BufferedStream {
      * @param b: the byte to be added
      */
     public void add(byte b) {
-        bytes.add(b);
+        if (spillThreshold >= 0 && size + 1 > spillThreshold) spill();
+        if (spillChannel != null) {
+            spillPending[spillPendingCount++] = b;
+            size++;
+            if (spillPendingCount == CHUNK_SIZE) flushSpillPending();
+            return;
+        }
+        prepareForWriting();
+        long end = offset + size;
+        int index = (int) (end >>> CHUNK_SHIFT);
+        if (index == chunks.size()) chunks.add(BufferPool.getBytes(CHUNK_SIZE));
+        chunks.get(index)[(int) (end & CHUNK_MASK)] = b;
+        size++;
     }
 
     /**
@@ -91,14 +196,57 @@ public class BufferedStream {
      * @param bytes: the bytes vector to be added
      */
     public void add(byte[] bytes) {
-        if (bytes != null) {
-            byte b;
-            for (int i = 0; i < bytes.length; i++) {
-                b = bytes[i];
-                if (b != 0) this.bytes.add(b);
-                else break;
+        if (bytes != null) add(bytes, 0, bytes.length);
+    }
+
+    /**
+     * adding a part of a vector of bytes to stream
+     *
+     * @param bytes:  the bytes vector.
+     * @param start:  position of the first byte to be added.
+     * @param length: number of bytes to be added.
+     */
+    public void add(byte[] bytes, int start, int length) {
+        if (bytes == null || length <= 0) return;
+        if (start < 0 || start + length > bytes.length) throw new IndexOutOfBoundsException();
+        if (spillThreshold >= 0 && size + length > spillThreshold) spill();
+        if (spillChannel != null && spillPendingCount + length > CHUNK_SIZE) flushSpillPending();
+        if (spillChannel != null && length < CHUNK_SIZE) {
+            System.arraycopy(bytes, start, spillPending, spillPendingCount, length);
+            spillPendingCount += length;
+            size += length;
+            if (spillPendingCount == CHUNK_SIZE) flushSpillPending();
+            return;
+        }
+        if (spillChannel != null) {
+            /**
+             * big enough to be written at once, nothing is staged at this point
+             */
+            try {
+                ByteBuffer source = ByteBuffer.wrap(bytes, start, length);
+                while (source.hasRemaining()) spillChannel.write(source, size + source.position() - start);
+                size += length;
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", "Couldn't write the buffer file, the bytes are kept in memory: " + e.getMessage());
+                unspill();
             }
         }
+        prepareForWriting();
+
+        while (length > 0) {
+            long end = offset + size;
+            int index = (int) (end >>> CHUNK_SHIFT);
+            int position = (int) (end & CHUNK_MASK);
+            if (index == chunks.size()) chunks.add(BufferPool.getBytes(CHUNK_SIZE));
+
+            int count = Math.min(length, CHUNK_SIZE - position);
+            System.arraycopy(bytes, start, chunks.get(index), position, count);
+            start += count;
+            length -= count;
+            size += count;
+        }
     }
 
     /**
@@ -108,24 +256,86 @@ public class BufferedStream {
      */
     public void add(List<Byte> bytes) {
         if (bytes != null)
-            this.bytes.addAll(bytes);
+            for (int i = 0; i < bytes.size(); i++) add(bytes.get(i));
     }
 
     /**
-     * adding a list of bytes to stream.
+     * adding the bytes of another buffer to stream.
+     *
+     * @param stream: the buffer to be added.
+     */
+    public void add(BufferedStream stream) {
+        if (stream == null) return;
+        long length = stream.getBytesCount();
+        if (!stream.isSpilled()) {
+            for (long position = 0; position < length; ) {
+                byte[] chunk = stream.chunkAt(position);
+                int start = stream.positionInChunk(position);
+                int count = (int) Math.min(CHUNK_SIZE - start, length - position);
+                add(chunk, start, count);
+                position += count;
+            }
+            return;
+        }
+        byte[] buffer = BufferPool.getBytes(CHUNK_SIZE);
+        try {
+            for (long position = 0; position < length; ) {
+                int count = stream.read(position, buffer, 0, (int) Math.min(CHUNK_SIZE, length - position));
+                if (count <= 0) {
+                    Log.e("Arrowbow_library", "Couldn't read the buffer file, only " + position + " of " + length
+                            + " bytes were added");
+                    break;
+                }
+                add(buffer, 0, count);
+                position += count;
+            }
+        } finally {
+            BufferPool.recycle(buffer);
+        }
+    }
+
+    /**
+     * adding the bytes of a stream till its end, the stream is then closed.
      *
      * @param inputStream: input stream from where u want to read bytes.
      */
     public void add(InputStream inputStream) {
         if (inputStream != null) {
+            byte[] buffer = null;
             try {
-                BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-                byte[] buffer = new byte[4096]; /* reading by 4kb */
-                while ((bufferedInputStream.read(buffer)) != -1) {
-                    add(buffer);
+                prepareForWriting();
+                /**
+                 * reading straight into the chunks, till the threshold is passed
+                 */
+                while (true) {
+                    if (spillThreshold >= 0 && size >= spillThreshold) spill();
+                    if (spillChannel != null) {
+                        if (buffer == null) buffer = BufferPool.getBytes(CHUNK_SIZE);
+                        int count = inputStream.read(buffer);
+                        if (count == -1) break;
+                        add(buffer, 0, count);
+                        continue;
+                    }
+
+                    long end = offset + size;
+                    int index = (int) (end >>> CHUNK_SHIFT);
+                    int position = (int) (end & CHUNK_MASK);
+                    if (index == chunks.size()) chunks.add(BufferPool.getBytes(CHUNK_SIZE));
+
+                    int count = inputStream.read(chunks.get(index), position, CHUNK_SIZE - position);
+                    if (count == -1) break;
+                    size += count;
                 }
-                inputStream.close();
             } catch (Exception e) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", "" + e.getMessage());
+            } finally {
+                BufferPool.recycle(buffer);
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
 
@@ -136,28 +346,420 @@ public class BufferedStream {
      * @return byte at index if not exists returns 0.
      */
     public byte getByte(int index) {
-        if (index > -1 && index < bytes.size())
-            return bytes.get(index);
-        else return 0;
+        return getByte((long) index);
+    }
+
+    /**
+     * @param index: index of byte you want to get.
+     * @return byte at index if not exists returns 0.
+     */
+    public byte getByte(long index) {
+        if (index < 0 || index >= size) return 0;
+        if (spillChannel == null) return chunkAt(index)[positionInChunk(index)];
+
+        long fileSize = size - spillPendingCount;
+        if (index >= fileSize) return spillPending[(int) (index - fileSize)];
+        return cacheAt(index) ? readCache[(int) (index - readCacheStart)] : 0;
     }
 
     /**
-     * @return a vector of bytes.
+     * Copies bytes of the buffer into a vector.
+     *
+     * @param position: index of the first byte to be read.
+     * @param bytes:    where the bytes are copied.
+     * @param start:    position of the first copied byte in the vector.
+     * @param length:   maximum number of bytes to be read.
+     * @return the number of bytes read, -1 if the position is at the end of the buffer.
+     */
+    public int read(long position, byte[] bytes, int start, int length) {
+        if (position < 0 || start < 0 || length < 0 || start + length > bytes.length)
+            throw new IndexOutOfBoundsException();
+        if (position >= size) return (length == 0) ? 0 : -1;
+
+        length = (int) Math.min(length, size - position);
+        int read = 0;
+        if (spillChannel != null) {
+            long fileSize = size - spillPendingCount;
+            while (read < length) {
+                int count;
+                if (position >= fileSize) {
+                    count = length - read;
+                    System.arraycopy(spillPending, (int) (position - fileSize), bytes, start + read, count);
+                } else if (fileSize - position >= CHUNK_SIZE && length - read >= CHUNK_SIZE) {
+                    /**
+                     * big reads go straight to the vector
+                     */
+                    count = readSpillFile(position,
+                            ByteBuffer.wrap(bytes, start + read, (int) Math.min(length - read, fileSize - position)));
+                } else if (cacheAt(position)) {
+                    int positionInCache = (int) (position - readCacheStart);
+                    count = Math.min(length - read, readCacheLength - positionInCache);
+                    System.arraycopy(readCache, positionInCache, bytes, start + read, count);
+                } else count = -1;
+
+                if (count <= 0) return (read > 0) ? read : -1;
+                read += count;
+                position += count;
+            }
+            return read;
+        }
+        while (read < length) {
+            int positionInChunk = positionInChunk(position);
+            int count = Math.min(length - read, CHUNK_SIZE - positionInChunk);
+            System.arraycopy(chunkAt(position), positionInChunk, bytes, start + read, count);
+            read += count;
+            position += count;
+        }
+        return read;
+    }
+
+    /**
+     * Writes the bytes of the buffer to a stream, without copying them.
+     *
+     * @param outputStream: where the bytes are written, it isn't closed.
+     * @throws IOException if the stream fails.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (spillChannel != null) {
+            byte[] buffer = BufferPool.getBytes(CHUNK_SIZE);
+            try {
+                long length = size;
+                for (long position = 0; position < length; ) {
+                    int count = read(position, buffer, 0, (int) Math.min(CHUNK_SIZE, length - position));
+                    if (count == -1) throw new IOException("Couldn't read the buffer file");
+                    outputStream.write(buffer, 0, count);
+                    position += count;
+                }
+            } finally {
+                BufferPool.recycle(buffer);
+            }
+            return;
+        }
+        for (long position = 0; position < size; ) {
+            int positionInChunk = positionInChunk(position);
+            int count = (int) Math.min(CHUNK_SIZE - positionInChunk, size - position);
+            outputStream.write(chunkAt(position), positionInChunk, count);
+            position += count;
+        }
+    }
+
+    /**
+     * A part of this buffer sharing its bytes, nothing is copied until one of the two buffers is written.
+     *
+     * @param start:  index of the first byte of the slice.
+     * @param length: number of bytes of the slice.
+     * @return the slice.
+     */
+    public BufferedStream slice(long start, long length) {
+        if (start < 0 || length < 0 || start + length > size) throw new IndexOutOfBoundsException();
+
+        BufferedStream slice = new BufferedStream();
+        if (length == 0) return slice;
+
+        /**
+         * the file belongs to this buffer, the slice gets its own copy
+         */
+        if (spillChannel != null) {
+            slice.setSpillToDisk(spillDirectory, spillThreshold);
+            byte[] buffer = BufferPool.getBytes(CHUNK_SIZE);
+            for (long position = start; position < start + length; ) {
+                int count = read(position, buffer, 0, (int) Math.min(CHUNK_SIZE, start + length - position));
+                if (count <= 0) {
+                    Log.e("Arrowbow_library", "Couldn't read the buffer file, the slice holds only "
+                            + (position - start) + " of " + length + " bytes");
+                    break;
+                }
+                slice.add(buffer, 0, count);
+                position += count;
+            }
+            BufferPool.recycle(buffer);
+            return slice;
+        }
+
+        long first = offset + start;
+        long last = first + length - 1;
+        for (int i = (int) (first >>> CHUNK_SHIFT); i <= (int) (last >>> CHUNK_SHIFT); i++)
+            slice.chunks.add(chunks.get(i));
+        slice.offset = (int) (first & CHUNK_MASK);
+        slice.size = length;
+        /**
+         * this buffer only writes after its own end, which the slice doesn't see,
+         * but the slice would write over the bytes following it.
+         */
+        slice.shared = true;
+        /**
+         * both keep the chunks as long as they live
+         */
+        slice.recyclable = false;
+        recyclable = false;
+        return slice;
+    }
+
+    /**
+     * @return a stream reading the buffer from its start, the bytes added meanwhile are read too.
+     */
+    public InputStream getInputStream() {
+        return new InputStream() {
+            private long position = 0;
+            private long mark = 0;
+
+            @Override
+            public int read() {
+                return (position < size) ? getByte(position++) & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int start, int length) {
+                int count = BufferedStream.this.read(position, bytes, start, length);
+                if (count > 0) position += count;
+                return count;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, size - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, size - position);
+            }
+
+            @Override
+            public boolean markSupported() {
+                return true;
+            }
+
+            @Override
+            public synchronized void mark(int readLimit) {
+                mark = position;
+            }
+
+            @Override
+            public synchronized void reset() {
+                position = mark;
+            }
+        };
+    }
+
+    /**
+     * @return a stream adding the bytes written to it at the end of the buffer.
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                add((byte) b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int start, int length) {
+                add(bytes, start, length);
+            }
+        };
+    }
+
+    /**
+     * @return a vector of bytes, or null if the buffer holds more than a vector can.
      */
     public byte[] getBytesArray() {
-        byte[] bytes = new byte[this.bytes.size()];
-        for (int i = 0; i < this.bytes.size(); i++) {
-            bytes[i] = this.bytes.get(i);
+        if (size > Integer.MAX_VALUE - 8) {
+            Log.e("Arrowbow_library", "The buffer holds " + size + " bytes, too many for one array");
+            return null;
         }
+        byte[] bytes = new byte[(int) size];
+        read(0, bytes, 0, bytes.length);
         return bytes;
     }
 
     /**
-     * @return a vector of bytes.
+     * @return a list holding a copy of the bytes, every byte takes an object in it so prefer
+     * {@link #getBytesArray()} or {@link #getInputStream()}.
      */
+    @Deprecated
     public ArrayList<Byte> getBytesList() {
+        ArrayList<Byte> bytes = new ArrayList<>((int) Math.min(size, Integer.MAX_VALUE - 8));
+        for (long i = 0; i < size && i < Integer.MAX_VALUE - 8; i++) bytes.add(getByte(i));
         return bytes;
     }
 
+    /**
+     * Gives the chunks back to the {@link BufferPool} if no slice shares them, and starts a new list.
+     */
+    private void recycleChunks() {
+        if (recyclable) for (int i = 0; i < chunks.size(); i++) BufferPool.recycle(chunks.get(i));
+        chunks = new ArrayList<>();
+        recyclable = true;
+    }
+
+    private byte[] chunkAt(long position) {
+        return chunks.get((int) ((offset + position) >>> CHUNK_SHIFT));
+    }
+
+    private int positionInChunk(long position) {
+        return (int) ((offset + position) & CHUNK_MASK);
+    }
+
+    /**
+     * Moves the bytes from memory to a new temporary file, they stay in memory if the file can't be written.
+     */
+    private void spill() {
+        if (spillChannel != null || spillDirectory == null) return;
+        try {
+            spillDirectory.mkdirs();
+            spillFile = File.createTempFile("arrowbow_buffer", ".tmp", spillDirectory);
+            spillAccess = new RandomAccessFile(spillFile, "rw");
+            spillChannel = spillAccess.getChannel();
+
+            for (long position = 0; position < size; ) {
+                int positionInChunk = positionInChunk(position);
+                int count = (int) Math.min(CHUNK_SIZE - positionInChunk, size - position);
+                ByteBuffer source = ByteBuffer.wrap(chunkAt(position), positionInChunk, count);
+                while (source.hasRemaining()) spillChannel.write(source, position + source.position() - positionInChunk);
+                position += count;
+            }
+            recycleChunks();
+            offset = 0;
+            shared = false;
+            spillPending = BufferPool.getBytes(CHUNK_SIZE);
+            spillPendingCount = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e("Arrowbow_library", "Couldn't create the buffer file, the bytes are kept in memory: " + e.getMessage());
+            deleteSpillFile();
+            /**
+             * not trying again for every added byte
+             */
+            spillThreshold = -1;
+        }
+    }
+
+    /**
+     * Writes the staged bytes to the file, they are brought back to memory with the file if it fails.
+     */
+    private void flushSpillPending() {
+        try {
+            ByteBuffer source = ByteBuffer.wrap(spillPending, 0, spillPendingCount);
+            long fileSize = size - spillPendingCount;
+            while (source.hasRemaining()) spillChannel.write(source, fileSize + source.position());
+            spillPendingCount = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e("Arrowbow_library", "Couldn't write the buffer file, the bytes are kept in memory: " + e.getMessage());
+            unspill();
+        }
+    }
+
+    /**
+     * Brings the bytes of a failing file back to memory.
+     */
+    private void unspill() {
+        long fileSize = size - spillPendingCount;
+        ArrayList<byte[]> restored = new ArrayList<>();
+        long restoredSize = 0;
+        try {
+            while (restoredSize < fileSize) {
+                ByteBuffer chunk = ByteBuffer.wrap(BufferPool.getBytes(CHUNK_SIZE));
+                while (chunk.hasRemaining() && restoredSize < fileSize) {
+                    int count = spillChannel.read(chunk, restoredSize);
+                    if (count <= 0) throw new IOException("Buffer file is shorter than expected");
+                    restoredSize += count;
+                }
+                restored.add(chunk.array());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e("Arrowbow_library", "Couldn't read the buffer file: " + e.getMessage());
+        }
+        byte[] pending = spillPending;
+        int pendingCount = spillPendingCount;
+        spillPending = null;
+        deleteSpillFile();
+        spillThreshold = -1;
+        chunks = restored;
+        offset = 0;
+        size = restoredSize;
+        /**
+         * the staged bytes follow the file, they are lost with its end if it couldn't be read
+         */
+        if (restoredSize == fileSize) add(pending, 0, pendingCount);
+        BufferPool.recycle(pending);
+    }
+
+    private void deleteSpillFile() {
+        BufferPool.recycle(spillPending);
+        BufferPool.recycle(readCache);
+        spillPending = null;
+        spillPendingCount = 0;
+        readCache = null;
+        readCacheStart = 0;
+        readCacheLength = 0;
+        if (spillAccess != null) {
+            try {
+                spillAccess.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (spillFile != null) spillFile.delete();
+        spillAccess = null;
+        spillChannel = null;
+        spillFile = null;
+    }
 
-}
\ No newline at end of file
+    /**
+     * Reads the chunk of the file holding this position into the read cache, unless it's already there.
+     *
+     * @return false if the file can't be read.
+     */
+    private boolean cacheAt(long position) {
+        if (readCache != null && position >= readCacheStart && position < readCacheStart + readCacheLength)
+            return true;
+        if (readCache == null) readCache = BufferPool.getBytes(CHUNK_SIZE);
+        readCacheStart = position & ~(long) CHUNK_MASK;
+        int length = (int) Math.min(CHUNK_SIZE, size - spillPendingCount - readCacheStart);
+        readCacheLength = Math.max(0, readSpillFile(readCacheStart, ByteBuffer.wrap(readCache, 0, length)));
+        return position < readCacheStart + readCacheLength;
+    }
+
+    /**
+     * Fills a buffer with the bytes of the file from this position.
+     *
+     * @return the number of bytes read, -1 if the file can't be read.
+     */
+    private int readSpillFile(long position, ByteBuffer target) {
+        int start = target.position();
+        try {
+            while (target.hasRemaining()) {
+                int count = spillChannel.read(target, position + target.position() - start);
+                if (count <= 0) throw new IOException("Buffer file is shorter than expected");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e("Arrowbow_library", "Couldn't read the buffer file: " + e.getMessage());
+            if (target.position() == start) return -1;
+        }
+        return target.position() - start;
+    }
+
+    /**
+     * Copies the last chunk of a slice, so adding bytes doesn't change the buffer it was taken from.
+     */
+    private void prepareForWriting() {
+        if (!shared) return;
+        shared = false;
+
+        long end = offset + size;
+        int index = (int) (end >>> CHUNK_SHIFT);
+        /**
+         * only the chunk receiving the next bytes can be written, the full ones are kept as they are
+         */
+        if (index < chunks.size()) {
+            ArrayList<byte[]> copy = new ArrayList<>(chunks);
+            copy.set(index, chunks.get(index).clone());
+            chunks = copy;
+        } else chunks = new ArrayList<>(chunks);
+    }
+}
@@ -0,0 +1,45 @@
+package com.blacksoft.arrowbow.storage_manager;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * The goal of this class is to keep the {@link Os} calls out of {@link FileSaver}, these classes only exist
+ * from Lollipop and naming them in FileSaver would make it fail to load on older devices.
+ * It must only be used behind a {@link Build.VERSION#SDK_INT} check.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+final class FileAllocator {
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private FileAllocator() {
+    }
+
+    /**
+     * Reserves the blocks of a file on the storage.
+     *
+     * @return false if the file system can't allocate blocks ahead.
+     * @throws IOException if the storage can't hold the file.
+     */
+    static boolean allocate(FileDescriptor fd, long length) throws IOException {
+        try {
+            Os.posix_fallocate(fd, 0, length);
+            return true;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC)
+                throw new IOException("Not enough free space to store " + length + " bytes", e);
+            Log.e("Arrowbow_library", "" + e.getMessage());
+            return false;
+        }
+    }
+}
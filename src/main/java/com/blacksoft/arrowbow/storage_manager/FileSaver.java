@@ -2,12 +2,18 @@ package com.blacksoft.arrowbow.storage_manager;
 
 
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author AbdelWadoud Rasmi
@@ -18,13 +24,39 @@ import java.io.InputStream;
  **/
 
 public class FileSaver implements StorageConfig, FileType {
-    private static Object instance;
+
+    /**
+     * Size of the pooled buffers a stream copy fills before writing them, and of the progress steps.
+     */
+    private static final int TRANSFER_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Number of bytes a file to file copy moves between two progress calls.
+     */
+    private static final int FILE_TRANSFER_STEP_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Minimum time between two calls of {@link #showProgress(long)}.
+     */
+    private long progressIntervalMillis = 0;
+    private long lastProgressAt = 0;
+    private long lastShownBytes = 0;
 
     /**
      * Empty constructor, only if you need to show progress
      */
     public FileSaver() {
-        instance = this;
+    }
+
+    /**
+     * Limits the calls of {@link #showProgress(long)}, by default it's called after every write to the file.
+     * The last progress of a copy is always shown.
+     *
+     * @param progressIntervalMillis: minimum time between two calls in millis, 0 to show every progress.
+     */
+    public final FileSaver setProgressInterval(long progressIntervalMillis) {
+        this.progressIntervalMillis = Math.max(0, progressIntervalMillis);
+        return this;
     }
 
     /**
@@ -35,35 +67,269 @@ public class FileSaver implements StorageConfig, FileType {
      */
 
     public final boolean copyPaste(String filePathAndName, InputStream inputStream) {
+        return copyPaste(filePathAndName, inputStream, false);
+    }
+
+    /**
+     * Copying inputStream bytes into a File
+     * <p>
+     * The bytes are read into reused buffers of 256kb from the {@link BufferPool} and written through a
+     * {@link FileChannel} once a buffer is full, the progress is shown between two writes,
+     * the stream is closed at the end.
+     *
+     * @param filePathAndName: complete file name with its path.
+     * @param append:          whether the bytes are added at the end of the existing file, the progress
+     *                         then starts from the existing file size.
+     * @Returns true if it's a successful operation else false, in append mode the bytes copied before
+     * the failure stay in the file.
+     */
+
+    public final boolean copyPaste(String filePathAndName, InputStream inputStream, boolean append) {
+        FileOutputStream outputStream = null;
         try {
+            long numberOfReadBytes = append ? new File(filePathAndName).length() : 0;
 
-            FileOutputStream outputStream = new FileOutputStream(filePathAndName);
-            //
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-            byte[] buffer = new byte[8192]; /* reading by 8kb (perfect buffer size) */
-            long numberOfReadBytes = 0;
-            int size;
-            while ((size = bufferedInputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, size);
-                numberOfReadBytes += size;
-                ((FileSaver) instance).showProgress(numberOfReadBytes);
+            outputStream = new FileOutputStream(filePathAndName, append);
+            resetProgress(numberOfReadBytes);
+            numberOfReadBytes = copyStream(inputStream, outputStream.getChannel(), numberOfReadBytes, Long.MAX_VALUE);
+            onBytesCopied(numberOfReadBytes, true);
+            outputStream.close();
+            outputStream = null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
             }
-            outputStream.flush();
+            try {
+                if (inputStream != null) inputStream.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copying inputStream bytes into a new File of a known size.
+     * <p>
+     * The whole file is allocated on the storage first, so the copy fails before reading anything when the
+     * storage is full, and the file isn't fragmented. The bytes are then written into it through reused
+     * buffers of 256kb, like {@link #copyPaste(String, InputStream, boolean)}.
+     *
+     * @param filePathAndName: complete file name with its path.
+     * @param length:          exact size of the stream in bytes.
+     * @Returns true if it's a successful operation else false, the file is deleted on failure or when the
+     * stream ends before the given length.
+     */
+    public final boolean copyPaste(String filePathAndName, InputStream inputStream, long length) {
+        RandomAccessFile file = null;
+        boolean copied = false;
+        try {
+            file = new RandomAccessFile(filePathAndName, "rw");
+            preallocate(file, length);
+
+            resetProgress(0);
+            long position = copyStream(inputStream, file.getChannel(), 0, length);
+            if (position < length)
+                throw new IOException("The stream ended after " + position + " of " + length + " bytes");
+            onBytesCopied(length, true);
+            copied = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            try {
+                if (inputStream != null) inputStream.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (!copied) new File(filePathAndName).delete();
+        }
+        return copied;
+    }
+
+    /**
+     * Writes the bytes of a stream at the current position of a channel, a pooled array is filled from the stream
+     * and written at once, so the file gets few big writes whatever the size of the network reads.
+     *
+     * @param numberOfReadBytes: bytes already in the file, the progress starts from here.
+     * @param limit:             the copy stops when the file holds this many bytes.
+     * @return the number of bytes in the file at the end of the copy.
+     */
+    private long copyStream(InputStream inputStream, FileChannel target, long numberOfReadBytes, long limit)
+            throws IOException {
+        byte[] bytes = BufferPool.getBytes(TRANSFER_CHUNK_SIZE);
+        try {
+            boolean ended = false;
+            while (!ended && numberOfReadBytes < limit) {
+                int capacity = (int) Math.min(TRANSFER_CHUNK_SIZE, limit - numberOfReadBytes);
+                int filled = 0;
+                while (filled < capacity) {
+                    int count = inputStream.read(bytes, filled, capacity - filled);
+                    if (count == -1) {
+                        ended = true;
+                        break;
+                    }
+                    filled += count;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, filled);
+                while (buffer.hasRemaining()) numberOfReadBytes += target.write(buffer);
+                onBytesCopied(numberOfReadBytes, false);
+            }
+        } finally {
+            BufferPool.recycle(bytes);
+        }
+        return numberOfReadBytes;
+    }
+
+    /**
+     * Reserves the blocks of a file on the storage.
+     *
+     * @throws IOException if the storage can't hold the file.
+     */
+    private static void preallocate(RandomAccessFile file, long length) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && FileAllocator.allocate(file.getFD(), length))
+            return;
+        /**
+         * the file system can't allocate blocks ahead, the file is only resized.
+         */
+        file.setLength(length);
+    }
+
+    /**
+     * Copying a local file into a new File
+     * <p>
+     * The bytes go from one file channel to the other with {@link FileChannel#transferTo},
+     * the kernel copies them without bringing them to the app (sendfile / copy_file_range).
+     *
+     * @param source:          the file to copy.
+     * @param filePathAndName: complete file name with its path.
+     * @Returns true if it's a successful operation else false, the new file is deleted on failure.
+     */
+    public final boolean copyFile(File source, String filePathAndName) {
+        FileInputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        boolean copied = false;
+        try {
+            inputStream = new FileInputStream(source);
+            outputStream = new FileOutputStream(filePathAndName);
+            FileChannel from = inputStream.getChannel();
+            FileChannel to = outputStream.getChannel();
+
+            long length = from.size();
+            long position = 0;
+            resetProgress(0);
+            while (position < length) {
+                long count = from.transferTo(position, Math.min(FILE_TRANSFER_STEP_SIZE, length - position), to);
+                if (count <= 0) throw new IOException(source.getName() + " changed while being copied");
+                position += count;
+                onBytesCopied(position, false);
+            }
+            onBytesCopied(position, true);
             outputStream.close();
-            bufferedInputStream.close();
-            inputStream.close();
             //
             outputStream = null;
-            bufferedInputStream = null;
+            copied = true;
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
         } finally {
-            if (inputStream != null) inputStream = null;
+            try {
+                if (outputStream != null) outputStream.close();
+                if (inputStream != null) inputStream.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (!copied) new File(filePathAndName).delete();
         }
+        return copied;
+    }
+
+    /**
+     * Moving a local file to a new path
+     * <p>
+     * On the same volume the file is only renamed, nothing is copied. Otherwise it's copied with
+     * {@link #copyFile(File, String)} and the source is deleted once the copy succeeded.
+     *
+     * @param source:          the file to move.
+     * @param filePathAndName: complete file name with its path.
+     * @Returns true if it's a successful operation else false, the source is kept on failure.
+     */
+    public final boolean moveFile(File source, String filePathAndName) {
+        File target = new File(filePathAndName);
+        long length = source.length();
+        if (source.renameTo(target)) {
+            showProgress(length);
+            return true;
+        }
+
+        if (!copyFile(source, filePathAndName)) return false;
+        if (!source.delete())
+            Log.e("Arrowbow_library", "Couldn't delete " + source.getPath() + " after moving it");
         return true;
     }
 
+    /**
+     * Copies or moves a file, unless it's already at this path.
+     */
+    private String transfer(File file, String fileCompleteName, boolean move) {
+        try {
+            if (file.getCanonicalPath().equals(new File(fileCompleteName).getCanonicalPath()))
+                return fileCompleteName;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        if (move ? moveFile(file, fileCompleteName) : copyFile(file, fileCompleteName))
+            return fileCompleteName;
+        else return null;
+    }
+
+    /**
+     * Saves input stream bytes of a known size into a named file, see {@link #copyPaste(String, InputStream, long)}.
+     *
+     * @param path:        directory path where you want to store your file.
+     * @param fileName:    file name with extension.
+     * @param inputStream: the input stream u want to read from
+     * @param length:      exact size of the stream in bytes.
+     */
+    public final String save(String path, String fileName, InputStream inputStream, long length) {
+
+        if (inputStream == null) return null;
+
+        //creating parent directories if not existing before
+        File dataDir = new File(path);
+        dataDir.mkdirs();
+
+        if (!StorageUtils.hasUsableSpace(path, length)) {
+            Log.e("Arrowbow_library", "Not enough free space to store " + length + " bytes in " + path);
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+
+        String fileCompleteName = dataDir.getPath() + File.separator + fileName;
+        if (copyPaste(fileCompleteName, inputStream, length)) return fileCompleteName;
+        else return null;
+    }
+
     /**
      * Saves input stream bytes into a named file.
      *
@@ -95,7 +361,18 @@ public class FileSaver implements StorageConfig, FileType {
      */
 
     public final String save(String path, String fileName, File file) {
+        return save(path, fileName, file, false);
+    }
 
+    /**
+     * Saves file content bytes a new file, see {@link #copyFile(File, String)} and {@link #moveFile(File, String)}.
+     *
+     * @param file:     your file
+     * @param path:     new path where you want to store your file
+     * @param fileName: file name with extension
+     * @param move:     whether the file is moved instead of copied, it doesn't exist at its old path anymore.
+     */
+    public final String save(String path, String fileName, File file, boolean move) {
 
         if (file == null || !file.isFile()) return null;
 
@@ -105,14 +382,8 @@ public class FileSaver implements StorageConfig, FileType {
         File dataDir = new File(path);
         dataDir.mkdirs();
 
-        try {
-            String fileCompleteName = dataDir.getPath() + File.separator + fileName;
-            if (copyPaste(fileCompleteName, new FileInputStream(file)))
-                return fileCompleteName;
-
-        } catch (Exception e) {
-        }
-        return null;
+        String fileCompleteName = dataDir.getPath() + File.separator + fileName;
+        return transfer(file, fileCompleteName, move);
     }
 
     /**
@@ -124,6 +395,18 @@ public class FileSaver implements StorageConfig, FileType {
      */
 
     public final String saveInCache(Context context, String filePrefix, File file) {
+        return saveInCache(context, filePrefix, file, false);
+    }
+
+    /**
+     * Saves file content bytes a new file, see {@link #copyFile(File, String)} and {@link #moveFile(File, String)}.
+     *
+     * @param file: your file
+     * @Param filePrefix: in case you want to distinguish your file from others
+     * example: (yesterday_1002440_244... .xls) yesterday is the prefix
+     * @param move: whether the file is moved instead of copied, it doesn't exist at its old path anymore.
+     */
+    public final String saveInCache(Context context, String filePrefix, File file, boolean move) {
 
         if (file == null || !file.isFile() || context == null) return null;
 
@@ -185,13 +468,7 @@ public class FileSaver implements StorageConfig, FileType {
         File dataDir = new File(parentDirPath);
         dataDir.mkdirs();
 
-        try {
-            if (copyPaste(fileCompleteName, new FileInputStream(file)))
-                return fileCompleteName;
-
-        } catch (Exception e) {
-        }
-        return null;
+        return transfer(file, fileCompleteName, move);
     }
 
     /**
@@ -203,6 +480,34 @@ public class FileSaver implements StorageConfig, FileType {
         return saveInCache(context, LIBRARY_NAME, file);
     }
 
+    /**
+     * Starts the progress of a new copy.
+     */
+    private void resetProgress(long numberOfReadBytes) {
+        lastProgressAt = 0;
+        lastShownBytes = numberOfReadBytes;
+    }
+
+    /**
+     * Calls {@link #showProgress(long)} at most once per interval, the last progress of a copy is always shown.
+     */
+    private void onBytesCopied(long numberOfReadBytes, boolean last) {
+        if (last) {
+            if (progressIntervalMillis != 0 && lastShownBytes != numberOfReadBytes) showProgress(numberOfReadBytes);
+            return;
+        }
+        if (progressIntervalMillis == 0) {
+            showProgress(numberOfReadBytes);
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (now - lastProgressAt >= progressIntervalMillis) {
+            lastProgressAt = now;
+            lastShownBytes = numberOfReadBytes;
+            showProgress(numberOfReadBytes);
+        }
+    }
+
     /**
      * Shows progress of the file saving operation.
      * This is not an abstract method, in case you don't want to know the progress.
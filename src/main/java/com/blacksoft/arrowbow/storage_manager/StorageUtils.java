@@ -334,6 +334,19 @@ public final class StorageUtils {
         }
     }
 
+    /**
+     * Tells if a directory's storage can hold this many more bytes, the directory is created if needed.
+     *
+     * @param directory: where the bytes would be stored.
+     * @param length:    number of bytes.
+     */
+    public static boolean hasUsableSpace(@Nullable String directory, long length) {
+        if (directory == null) return false;
+        File dir = new File(directory);
+        dir.mkdirs();
+        return dir.getUsableSpace() >= length;
+    }
+
     /**
      * Tells if this file is stored locally on this device or not
      */
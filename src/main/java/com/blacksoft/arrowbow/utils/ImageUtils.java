@@ -11,8 +11,6 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Looper;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
@@ -27,18 +25,51 @@ import com.blacksoft.arrowbow.storage_manager.StorageUtils;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.WeakHashMap;
 
 /**
  * All utils needed to display images
  */
 public class ImageUtils {
 
+    /**
+     * Downloads of the images about to be displayed, by image view.
+     */
+    private static final WeakHashMap<ImageView, HttpConnection> downloads = new WeakHashMap<>();
+
     /**
      * private constructor to prevent users from creating an instance from this class
      */
     private ImageUtils() {
     }
 
+    /**
+     * Cancels the download of the image about to be displayed in this image view, so a recycled view
+     * (fast scrolling) doesn't waste bandwidth on an image nobody will see.
+     * It's called automatically when a new image is displayed in the same view.
+     *
+     * @param imageView: imageview the image was going to be displayed in
+     */
+    public static void cancelDisplay(@NonNull ImageView imageView) {
+        HttpConnection download;
+        synchronized (downloads) {
+            download = downloads.remove(imageView);
+        }
+        if (download != null) download.cancel();
+    }
+
+    private static void trackDownload(@NonNull ImageView imageView, @NonNull HttpConnection download) {
+        synchronized (downloads) {
+            downloads.put(imageView, download);
+        }
+    }
+
+    private static void untrackDownload(@NonNull ImageView imageView, @NonNull HttpConnection download) {
+        synchronized (downloads) {
+            if (downloads.get(imageView) == download) downloads.remove(imageView);
+        }
+    }
+
     /**
      * compress image and load it
      *
@@ -71,7 +102,7 @@ public class ImageUtils {
                      * decoding bitmap
                      */
                     circledBitmap = new RoundedImage(BitmapFactory.decodeStream(inputStream));
-                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    MainThreadDispatcher.post(new Runnable() {
                         @Override
                         public void run() {
                             /**
@@ -104,7 +135,7 @@ public class ImageUtils {
                      */
                     Bitmap bitmap = BitmapFactory.decodeResource(imageView.getResources(), imageResourceId);
                     if (bitmap != null) circledBitmap = new RoundedImage(bitmap);
-                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    MainThreadDispatcher.post(new Runnable() {
                         @Override
                         public void run() {
                             /**
@@ -136,7 +167,7 @@ public class ImageUtils {
                      * decoding bitmap
                      */
                     circledBitmap = new RoundedImage(bitmap);
-                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    MainThreadDispatcher.post(new Runnable() {
                         @Override
                         public void run() {
                             /**
@@ -175,6 +206,8 @@ public class ImageUtils {
                                            boolean executeRunnableInBackgroundThread,
                                            @Nullable RequestHeader requestHeader) {
 
+        cancelDisplay(imageView);
+
         /**
          * case if the image already downloaded
          */
@@ -195,7 +228,7 @@ public class ImageUtils {
                     public void run() {
                         roundedImage = new RoundedImage(MemoryUtils.getImageFromRam(filePath));
                         //
-                        new Handler(Looper.getMainLooper()).post(() -> {
+                        MainThreadDispatcher.post(() -> {
                             imageView.setImageDrawable(roundedImage);
                             /**
                              * returning the cached file path in background thread
@@ -233,7 +266,7 @@ public class ImageUtils {
                         MemoryUtils.addImageToRam(filePath, bitmap);
                         roundedImage = new RoundedImage(bitmap);
 
-                        new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        MainThreadDispatcher.post(new Runnable() {
                             @Override
                             public void run() {
                                 imageView.setImageDrawable(roundedImage);
@@ -258,16 +291,17 @@ public class ImageUtils {
 
             }
 
-        } else
-        /**
-         *  case it's not downloaded
-         */
-            new HttpConnection() {
+        } else {
+            /**
+             *  case it's not downloaded
+             */
+            HttpConnection download = new HttpConnection() {
                 RoundedImage roundedImage;
                 String cachedPath = null;
 
                 @Override
                 protected void doInBackgroundThread(int evolutionFlag, Response response) {
+                    if (evolutionFlag != FLAG_REQUEST_ACCEPTED) untrackDownload(imageView, this);
                     if (evolutionFlag == FLAG_RESPONSE_IS_READY) {
                         /**
                          * updating the media element with the cached path
@@ -277,9 +311,13 @@ public class ImageUtils {
                         roundedImage = new RoundedImage(bitmap);
                         MemoryUtils.addImageToRam(filePath, bitmap);
 
-                        new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        MainThreadDispatcher.post(new Runnable() {
                             @Override
                             public void run() {
+                                /**
+                                 * another image was displayed in this view in the meantime
+                                 */
+                                if (isCancelled()) return;
                                 imageView.setImageDrawable(roundedImage);
                                 /**
                                  * returning the cached file path in background thread
@@ -300,10 +338,13 @@ public class ImageUtils {
                     }
                 }
 
-            }.getFile(filePath,
+            };
+            trackDownload(imageView, download);
+            download.getFile(filePath,
                     requestHeader,
                     storageDirectory + File.separator + StorageConfig.IMAGES_FOLDER
             );
+        }
     }
 
     /**
@@ -329,6 +370,8 @@ public class ImageUtils {
                                     boolean executeRunnableInBackgroundThread,
                                     @Nullable RequestHeader requestHeader) {
 
+        cancelDisplay(imageView);
+
         /**
          * case if the image already downloaded
          */
@@ -351,7 +394,7 @@ public class ImageUtils {
                     Bitmap bitmap = ImageUtils.loadCompressedBitmap(compressionSize, filePath);
                     MemoryUtils.addImageToRam(filePath, bitmap);
 
-                    new Handler(Looper.getMainLooper()).post(() -> {
+                    MainThreadDispatcher.post(() -> {
                         imageView.setImageBitmap(bitmap);
                         /**
                          * returning the cached file path in background thread
@@ -400,7 +443,7 @@ public class ImageUtils {
 //                    InputStream inputStream = ((InputStream) response.getResult());
 //                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
 //                    if (!executeRunnableInBackgroundThread && runnable != null)
-//                        new Handler(Looper.getMainLooper()).post(() -> {
+//                        MainThreadDispatcher.post(() -> {
 //                            //
 //                            runnable.setParams(bitmap);
 //                            runnable.run();
@@ -429,12 +472,12 @@ public class ImageUtils {
                                           @Nullable ParameterizedRunnable runnable,
                                           boolean executeRunnableInBackgroundThread,
                                           @Nullable RequestHeader requestHeader) {
-        return new HttpConnection() {
+        HttpConnection download = new HttpConnection() {
             String cachedPath = null;
 
             @Override
             protected void doInBackgroundThread(int evolutionFlag, Response response) {
-                //
+                if (evolutionFlag != FLAG_REQUEST_ACCEPTED) untrackDownload(imageView, this);
                 if (evolutionFlag == FLAG_RESPONSE_IS_READY) {
 
                     /**
@@ -444,9 +487,13 @@ public class ImageUtils {
                     Bitmap bitmap = ImageUtils.loadCompressedBitmap(compressionSize, cachedPath);
                     MemoryUtils.addImageToRam(filePath, bitmap);
 
-                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    MainThreadDispatcher.post(new Runnable() {
                         @Override
                         public void run() {
+                            /**
+                             * another image was displayed in this view in the meantime
+                             */
+                            if (isCancelled()) return;
                             imageView.setImageBitmap(bitmap);
                             /**
                              * returning the cached file path in background thread
@@ -467,7 +514,9 @@ public class ImageUtils {
                 }
 
             }
-        }.getFile(filePath,
+        };
+        trackDownload(imageView, download);
+        return download.getFile(filePath,
                 requestHeader,
                 storageDirectory + File.separator + StorageConfig.IMAGES_FOLDER
         );
@@ -0,0 +1,190 @@
+package com.blacksoft.arrowbow.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+
+/**
+ * The goal of this class is to run the library callbacks on the main thread in batches, one batch per frame,
+ * instead of posting a new looper message for every callback.
+ * <p>
+ * Callbacks posted from any thread are queued, the first one of a frame schedules a {@link Choreographer}
+ * frame callback that runs all the queued callbacks in the order they were posted.
+ * No frame comes while the screen is off or the app has no window, the batch then runs after
+ * {@link #FALLBACK_DELAY_MILLIS} instead of waiting for the screen.
+ * The number of callbacks run per frame can be read from the stats methods.
+ */
+public final class MainThreadDispatcher {
+
+    /**
+     * Time after which the queued callbacks run even if no frame came, about two frames.
+     */
+    public static final long FALLBACK_DELAY_MILLIS = 32;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Callbacks waiting for the next frame, swapped with the running ones to avoid allocations.
+     */
+    private static ArrayList<Runnable> pending = new ArrayList<>();
+    private static ArrayList<Runnable> running = new ArrayList<>();
+    private static boolean scheduled = false;
+
+    /**
+     * Stats
+     */
+    private static long frameCount = 0;
+    private static long callbackCount = 0;
+    private static int lastFrameCallbackCount = 0;
+    private static int maxFrameCallbackCount = 0;
+    private static long lastFrameDurationNanos = 0;
+
+    /**
+     * Runs the queued callbacks, once per frame.
+     */
+    private static final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mainHandler.removeCallbacks(fallbackFlush);
+            runBatch();
+        }
+    };
+
+    /**
+     * Runs the queued callbacks when no frame came in time.
+     */
+    private static final Runnable fallbackFlush = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            runBatch();
+        }
+    };
+
+    /**
+     * Registers the frame callback, the {@link Choreographer} of the main thread can only be used from it.
+     */
+    private static final Runnable frameScheduler = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+            mainHandler.postDelayed(fallbackFlush, FALLBACK_DELAY_MILLIS);
+        }
+    };
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private MainThreadDispatcher() {
+    }
+
+    /**
+     * Runs a callback on the main thread at the next frame, after the callbacks posted before it.
+     *
+     * @param runnable: code to be executed in the main thread.
+     */
+    public static void post(@NonNull Runnable runnable) {
+        boolean schedule;
+        synchronized (MainThreadDispatcher.class) {
+            pending.add(runnable);
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (!schedule) return;
+
+        if (Looper.myLooper() == Looper.getMainLooper()) frameScheduler.run();
+        else mainHandler.post(frameScheduler);
+    }
+
+    /**
+     * Runs all the callbacks queued before this frame.
+     */
+    private static void runBatch() {
+        ArrayList<Runnable> batch;
+        synchronized (MainThreadDispatcher.class) {
+            batch = pending;
+            pending = running;
+            running = batch;
+            scheduled = false;
+        }
+
+        long startedAt = System.nanoTime();
+        int size = batch.size();
+        try {
+            for (int i = 0; i < size; i++) batch.get(i).run();
+        } finally {
+            batch.clear();
+            synchronized (MainThreadDispatcher.class) {
+                frameCount++;
+                callbackCount += size;
+                lastFrameCallbackCount = size;
+                if (size > maxFrameCallbackCount) maxFrameCallbackCount = size;
+                lastFrameDurationNanos = System.nanoTime() - startedAt;
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames that ran library callbacks.
+     */
+    public static synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the number of callbacks run on the main thread.
+     */
+    public static synchronized long getCallbackCount() {
+        return callbackCount;
+    }
+
+    /**
+     * @return the number of callbacks run by the last frame.
+     */
+    public static synchronized int getLastFrameCallbackCount() {
+        return lastFrameCallbackCount;
+    }
+
+    /**
+     * @return the highest number of callbacks run by one frame.
+     */
+    public static synchronized int getMaxFrameCallbackCount() {
+        return maxFrameCallbackCount;
+    }
+
+    /**
+     * @return the average number of callbacks run per frame.
+     */
+    public static synchronized double getAverageFrameCallbackCount() {
+        return (frameCount == 0) ? 0 : callbackCount / (double) frameCount;
+    }
+
+    /**
+     * @return the time the last frame spent running library callbacks, in nanoseconds.
+     */
+    public static synchronized long getLastFrameDurationNanos() {
+        return lastFrameDurationNanos;
+    }
+
+    /**
+     * @return the number of callbacks waiting for the next frame.
+     */
+    public static synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Sets all stats back to zero.
+     */
+    public static synchronized void resetStats() {
+        frameCount = 0;
+        callbackCount = 0;
+        lastFrameCallbackCount = 0;
+        maxFrameCallbackCount = 0;
+        lastFrameDurationNanos = 0;
+    }
+}